@@ -0,0 +1,112 @@
+package search;
+
+/**
+ * This class scores documents with BM25, from the collection statistics in a DocumentTable as
+ * they are when it is made. A keyword with document frequency df in a collection of N documents
+ * gets the weight idf * (K1 + 1), where idf = ln(1 + (N - df + 0.5) / (df + 0.5)), and a posting
+ * with frequency tf in a document of length dl scores
+ * <pre>
+ *   weight * tf / (tf + K1 * (1 - B + B * dl / avgdl))
+ * </pre>
+ * The right hand side of the denominator only depends on the document's norm (its quantized
+ * length), so it is computed once for each of the 256 norms, and scoring a posting is a table
+ * lookup, a multiply-add and a division.
+ *
+ * Norms keep document lengths to within 1/8: lengths up to 30 are exact, and longer ones keep
+ * their top four bits. Norm 0 stands for a document whose length is not known, which is scored
+ * as if it had the average length.
+ */
+class BM25 {
+
+	static final float K1 = 1.2f;
+	static final float B = 0.75f;
+
+	/**
+	 * Number of documents whose lengths are known, their total length and their average length.
+	 */
+	final int documents;
+	final long totalLength;
+	final float averageLength;
+
+	private final byte[] norms;
+	private final float[] lengthNorms = new float[256];
+
+	/**
+	 * Takes the collection statistics and document norms from the given table.
+	 *
+	 * @param table Document table
+	 */
+	BM25(DocumentTable table) {
+		norms = table.norms();
+		documents = table.lengths();
+		totalLength = table.totalLength();
+		averageLength = documents == 0 ? 1 : Math.max(1, (float)((double)totalLength/documents));
+		lengthNorms[0] = K1;
+		for (int n = 1; n < 256; n++) {
+			lengthNorms[n] = K1*(1 - B + B*length(n)/averageLength);
+		}
+	}
+
+	/**
+	 * Returns the weight of a keyword: its idf times (K1 + 1).
+	 *
+	 * @param docFreq Number of documents the keyword occurs in
+	 */
+	float weight(int docFreq) {
+		int n = Math.max(documents, docFreq);
+		return (float)Math.log(1 + (n - docFreq + 0.5)/(docFreq + 0.5))*(K1 + 1);
+	}
+
+	/**
+	 * Returns the score of a posting.
+	 *
+	 * @param weight Weight of the keyword
+	 * @param doc Document id
+	 * @param freq Frequency of the keyword in the document
+	 */
+	float score(float weight, int doc, int freq) {
+		float lengthNorm = doc < norms.length ? lengthNorms[norms[doc] & 0xff] : K1;
+		return weight*freq/(freq + lengthNorm);
+	}
+
+	/**
+	 * Returns the highest score that a posting with at most the given frequency, in a document
+	 * of at least the given norm, can get (see BlockImpacts).
+	 *
+	 * @param weight Weight of the keyword
+	 * @param freq Highest frequency
+	 * @param norm Lowest norm, from 1 to 255
+	 */
+	float bound(float weight, int freq, int norm) {
+		return weight*freq/(freq + lengthNorms[norm]);
+	}
+
+	/**
+	 * Quantizes a document length to a norm from 1 to 255. Lengths over 2^28 are taken as 2^28.
+	 *
+	 * @param length Number of keywords in the document
+	 * @return Norm
+	 */
+	static int norm(int length) {
+		int v = Math.min(length, 1 << 28) + 1;
+		if (v < 32) {
+			return v;
+		}
+		int e = 31 - Integer.numberOfLeadingZeros(v);
+		return 32 + (e - 5)*8 + ((v >>> (e - 3)) & 7);
+	}
+
+	/**
+	 * Returns the (smallest) document length that a norm from 1 to 255 stands for.
+	 *
+	 * @param norm Norm
+	 * @return Document length
+	 */
+	static int length(int norm) {
+		if (norm < 32) {
+			return norm - 1;
+		}
+		int e = 5 + (norm - 32)/8;
+		return ((8 + (norm - 32)%8) << (e - 3)) - 1;
+	}
+}
@@ -0,0 +1,535 @@
+package search;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class caches decoded blocks of the compressed posting lists in segment files (see
+ * CachedPostings), so the blocks that queries keep coming back to are only decoded once. A block
+ * is kept by segment, keyword and block number, as (int doc, int freq) pairs in a fixed-size slot
+ * of a direct buffer, outside the Java heap; the slots are allocated once, up to a budget of
+ * bytes, and reused as blocks are evicted.
+ *
+ * The cache is split into stripes by the hash of the block's key, each with its own lock, its
+ * own share of the slots, and its own clock for eviction, so threads looking up different
+ * blocks seldom wait for each other. A block that is not cached is decoded by the thread that
+ * wants it, outside the lock, and offered to the cache afterwards. Once a stripe is full, a new
+ * block only takes the slot of the block the stripe's clock picks if it has been asked for more
+ * often lately (TinyLFU admission): every lookup is counted in a small sketch of 4-bit
+ * counters, which are halved every so often so that old counts fade. This keeps a scan over a
+ * rarely used long list from pushing the frequently used blocks out.
+ *
+ * Several engines may share a cache. Each registers its segment, and lookups are counted by
+ * segment, so the hit ratio of each segment can be seen. A segment registered again, by the
+ * same or another engine, gets the same handle and keeps its blocks, as long as it is the same
+ * file (see IndexSegment.version). Unregistering a segment as often as it was registered drops
+ * its blocks and frees its id for another segment.
+ */
+public class BlockCache {
+
+	/**
+	 * Bytes in a slot: a full block of (doc, freq) int pairs.
+	 */
+	static final int SLOT = CompressedPostings.BLOCK*8;
+
+	/**
+	 * Default number of stripes.
+	 */
+	static final int STRIPES = 64;
+
+	/**
+	 * Most segments a cache can hold blocks of, and most blocks in one posting list.
+	 */
+	static final int MAX_SEGMENTS = 256;
+	static final int MAX_BLOCKS = 1 << 24;
+
+	/**
+	 * A segment whose blocks are cached, with its lookup counts.
+	 */
+	public static class Segment {
+		final BlockCache cache;
+		final int id;
+		final String name;
+		final String version;
+		private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+
+		/**
+		 * Number of registrations not yet unregistered; once it is 0, the handle no longer finds
+		 * or caches blocks, since its id may be another segment's.
+		 */
+		private int users = 1;
+		private volatile boolean registered = true;
+
+		private Segment(BlockCache cache, int id, String name, String version) {
+			this.cache = cache;
+			this.id = id;
+			this.name = name;
+			this.version = version;
+		}
+
+		/**
+		 * Name the segment was registered with.
+		 */
+		public String name() {
+			return name;
+		}
+
+		/**
+		 * Number of lookups that found a block.
+		 */
+		public long hits() {
+			return hits.sum();
+		}
+
+		/**
+		 * Number of lookups that did not find a block.
+		 */
+		public long misses() {
+			return misses.sum();
+		}
+
+		/**
+		 * Fraction of lookups that found a block, or 0 if there were none.
+		 */
+		public double hitRatio() {
+			long h = hits(), total = h + misses();
+			return total == 0 ? 0 : (double)h/total;
+		}
+
+		public String toString() {
+			return String.format("%s: %d hits, %d misses (%.1f%% hit)", name, hits(), misses(), 100*hitRatio());
+		}
+	}
+
+	/**
+	 * Frequency sketch for admission: a count-min sketch of 4-bit counters, 16 to a long, four
+	 * counters (one in each of four rows) to a key, found from the key's hash. A key's count is the least of its counters.
+	 * When as many increments as ten times the number of slots have been made, all the counters
+	 * are halved.
+	 */
+	private static class Sketch {
+		static final long[] SEEDS = {
+			0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+		};
+
+		final long[] table;
+		final int mask;
+		final int sampleSize;
+		int additions;
+
+		Sketch(int slots) {
+			int width = Integer.highestOneBit(Math.max(2, slots) - 1) << 1;
+			table = new long[width];
+			mask = width - 1;
+			sampleSize = 10*Math.max(1, slots);
+		}
+
+		int frequency(long hash) {
+			int h = (int)hash, start = (h & 3) << 2, min = 15;
+			for (int i = 0; i < 4; i++) {
+				int count = (int)(table[indexOf(h, i)] >>> ((start + i) << 2)) & 0xf;
+				min = Math.min(min, count);
+			}
+			return min;
+		}
+
+		void increment(long hash) {
+			int h = (int)hash, start = (h & 3) << 2;
+			boolean added = false;
+			for (int i = 0; i < 4; i++) {
+				int index = indexOf(h, i);
+				long one = 1L << ((start + i) << 2), full = 0xfL*one;
+				if ((table[index] & full) != full) {
+					table[index] += one;
+					added = true;
+				}
+			}
+			if (added && ++additions == sampleSize) {
+				for (int i = 0; i < table.length; i++) {
+					table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+				}
+				additions /= 2;
+			}
+		}
+
+		private int indexOf(int h, int i) {
+			long hash = (h + SEEDS[i])*SEEDS[i];
+			hash += hash >>> 32;
+			return (int)hash & mask;
+		}
+	}
+
+	/**
+	 * One part of the cache. Its slots are used in turn until they are all full, and then
+	 * reused in clock order: the clock hand passes over (and clears the bit of) each block that
+	 * has been looked up since the hand last passed it, and stops at the first one that has not.
+	 * Slots emptied by unregister are used again before the clock runs. Blocks are found through
+	 * an open addressing hash table of slot numbers (plus 1, so that 0 is an empty entry), by the
+	 * keys of the blocks in the slots.
+	 */
+	private static class Stripe {
+		/**
+		 * Key of an emptied slot. No block has it, since term positions are not negative.
+		 */
+		static final long EMPTY = -1L;
+
+		final IntBuffer slots;
+		final long[] keys;
+		final int[] counts;
+		final boolean[] referenced;
+		final int[] table;
+		final int mask;
+		final int[] free;
+		int used, hand, freeCount;
+		final Sketch sketch;
+		long rejected, evictions;
+
+		Stripe(int slotCount) {
+			slots = ByteBuffer.allocateDirect(slotCount*SLOT).order(ByteOrder.nativeOrder()).asIntBuffer();
+			keys = new long[slotCount];
+			counts = new int[slotCount];
+			referenced = new boolean[slotCount];
+			free = new int[slotCount];
+			table = new int[Integer.highestOneBit(slotCount) << 2];
+			mask = table.length - 1;
+			sketch = new Sketch(slotCount);
+		}
+
+		/**
+		 * Returns the slot of the block with the given key, or -1 if it is not cached.
+		 */
+		int find(long key, long hash) {
+			for (int i = (int)hash & mask; ; i = (i + 1) & mask) {
+				int slot = table[i] - 1;
+				if (slot < 0 || keys[slot] == key) {
+					return slot;
+				}
+			}
+		}
+
+		/**
+		 * Takes a slot for a new block: an emptied slot, a slot never used, or else the one the
+		 * clock hand stops at, if the new block has been looked up more often than the block in it.
+		 *
+		 * @param hash Hash of the new block's key
+		 * @return Slot, or -1 if the block is not admitted
+		 */
+		int take(long hash) {
+			if (freeCount > 0) {
+				return free[--freeCount];
+			}
+			if (used < keys.length) {
+				return used++;
+			}
+			while (referenced[hand]) {
+				referenced[hand] = false;
+				hand = (hand + 1) % keys.length;
+			}
+			int slot = hand;
+			hand = (hand + 1) % keys.length;
+			if (sketch.frequency(hash) <= sketch.frequency(mix(keys[slot]))) {
+				rejected++;
+				return -1;
+			}
+			remove(keys[slot]);
+			evictions++;
+			return slot;
+		}
+
+		void insert(long key, int slot) {
+			keys[slot] = key;
+			int i = (int)mix(key) & mask;
+			while (table[i] != 0) {
+				i = (i + 1) & mask;
+			}
+			table[i] = slot + 1;
+		}
+
+		/**
+		 * Empties the slots of the blocks of the given segment.
+		 */
+		void drop(int id) {
+			for (int slot = 0; slot < used; slot++) {
+				if (keys[slot] != EMPTY && (int)(keys[slot] >>> 56) == id) {
+					remove(keys[slot]);
+					keys[slot] = EMPTY;
+					referenced[slot] = false;
+					free[freeCount++] = slot;
+				}
+			}
+		}
+
+		/**
+		 * Removes a key from the hash table, moving back the entries after it that would no
+		 * longer be found.
+		 */
+		void remove(long key) {
+			int i = (int)mix(key) & mask;
+			while (keys[table[i] - 1] != key) {
+				i = (i + 1) & mask;
+			}
+			table[i] = 0;
+			for (int j = (i + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+				int home = (int)mix(keys[table[j] - 1]) & mask;
+				// the entry stays if its home is cyclically in (i, j]
+				boolean stays = i <= j ? i < home && home <= j : i < home || home <= j;
+				if (!stays) {
+					table[i] = table[j];
+					table[j] = 0;
+					i = j;
+				}
+			}
+		}
+	}
+
+	private final Stripe[] stripes;
+
+	/**
+	 * Registered segments, by id (null for a free id).
+	 */
+	private final Segment[] segments = new Segment[MAX_SEGMENTS];
+
+	/**
+	 * Creates an empty cache with the default number of stripes.
+	 *
+	 * @param maxBytes Off-heap memory for decoded blocks, in bytes
+	 */
+	public BlockCache(long maxBytes) {
+		this(maxBytes, STRIPES);
+	}
+
+	/**
+	 * Creates an empty cache. Every stripe gets at least one slot.
+	 *
+	 * @param maxBytes Off-heap memory for decoded blocks, in bytes
+	 * @param stripes Number of stripes (at least 1)
+	 * @throws IllegalArgumentException If a stripe's share of the memory is larger than 2 GB
+	 */
+	public BlockCache(long maxBytes, int stripes) {
+		long slotCount = Math.max(1, maxBytes/SLOT/stripes);
+		if (slotCount*SLOT > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Block cache stripes are larger than 2 GB");
+		}
+		this.stripes = new Stripe[stripes];
+		for (int s = 0; s < stripes; s++) {
+			this.stripes[s] = new Stripe((int)slotCount);
+		}
+	}
+
+	/**
+	 * Registers a segment whose blocks are to be cached. A segment that is registered already,
+	 * with the same name and version, gets the handle it has, with its blocks and counts;
+	 * otherwise the segment gets the lowest free id.
+	 *
+	 * @param name Name of the segment, for the counts
+	 * @param version Version of the segment file, which tells it from another file of that name
+	 * @return Handle by which its blocks are cached and its lookups counted
+	 * @throws IllegalStateException If MAX_SEGMENTS other segments are registered already
+	 */
+	synchronized Segment register(String name, String version) {
+		int id = -1;
+		for (int i = 0; i < MAX_SEGMENTS; i++) {
+			Segment segment = segments[i];
+			if (segment == null) {
+				id = id < 0 ? i : id;
+			} else if (segment.name.equals(name) && segment.version.equals(version)) {
+				segment.users++;
+				return segment;
+			}
+		}
+		if (id < 0) {
+			throw new IllegalStateException("Block cache has " + MAX_SEGMENTS + " segments already");
+		}
+		segments[id] = new Segment(this, id, name, version);
+		return segments[id];
+	}
+
+	/**
+	 * Gives back one registration of a segment. When it has been unregistered as often as it
+	 * was registered, its blocks are dropped and its id is freed, and the handle no longer finds
+	 * or caches blocks.
+	 *
+	 * @param segment Handle returned by register
+	 * @throws IllegalArgumentException If the segment is not registered with this cache
+	 */
+	public synchronized void unregister(Segment segment) {
+		if (segment.cache != this || segments[segment.id] != segment) {
+			throw new IllegalArgumentException("Segment " + segment.name + " is not registered");
+		}
+		if (--segment.users > 0) {
+			return;
+		}
+		// lookups through the handle stop before its blocks go, so none are cached again
+		segment.registered = false;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				stripe.drop(segment.id);
+			}
+		}
+		segments[segment.id] = null;
+	}
+
+	/**
+	 * Copies a cached block into the given array, as doc, freq pairs, and counts the lookup.
+	 *
+	 * @param segment Segment of the block
+	 * @param term Position of the block's keyword in the segment
+	 * @param block Number of the block in the keyword's list
+	 * @param postings Array of at least 2*CompressedPostings.BLOCK ints, to copy the block into
+	 * @return Number of postings in the block, or -1 if it is not cached
+	 */
+	int get(Segment segment, int term, int block, int[] postings) {
+		if (block >= MAX_BLOCKS) {
+			segment.misses.increment();
+			return -1;
+		}
+		long key = key(segment, term, block), hash = mix(key);
+		Stripe stripe = stripe(hash);
+		int n = -1;
+		synchronized (stripe) {
+			if (!segment.registered) {
+				segment.misses.increment();
+				return -1;
+			}
+			stripe.sketch.increment(hash);
+			int slot = stripe.find(key, hash);
+			if (slot >= 0) {
+				stripe.referenced[slot] = true;
+				n = stripe.counts[slot];
+				stripe.slots.position(slot*(SLOT/4));
+				stripe.slots.get(postings, 0, 2*n);
+			}
+		}
+		if (n < 0) {
+			segment.misses.increment();
+		} else {
+			segment.hits.increment();
+		}
+		return n;
+	}
+
+	/**
+	 * Offers a decoded block to the cache. It is copied into a slot that was never used if there
+	 * is one, or else into the slot of the block the clock hand stops at, if it has been looked
+	 * up more often than that block.
+	 *
+	 * @param segment Segment of the block
+	 * @param term Position of the block's keyword in the segment
+	 * @param block Number of the block in the keyword's list
+	 * @param postings Block, as doc, freq pairs
+	 * @param n Number of postings in the block
+	 */
+	void put(Segment segment, int term, int block, int[] postings, int n) {
+		if (block >= MAX_BLOCKS) {
+			return;
+		}
+		long key = key(segment, term, block), hash = mix(key);
+		Stripe stripe = stripe(hash);
+		synchronized (stripe) {
+			if (!segment.registered || stripe.find(key, hash) >= 0) {
+				return;
+			}
+			int slot = stripe.take(hash);
+			if (slot < 0) {
+				return;
+			}
+			stripe.slots.position(slot*(SLOT/4));
+			stripe.slots.put(postings, 0, 2*n);
+			stripe.counts[slot] = n;
+			stripe.insert(key, slot);
+		}
+	}
+
+	/**
+	 * Returns the registered segments, by id.
+	 */
+	public synchronized List<Segment> segments() {
+		ArrayList<Segment> list = new ArrayList<Segment>();
+		for (Segment segment : segments) {
+			if (segment != null) {
+				list.add(segment);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Number of blocks cached.
+	 */
+	public int size() {
+		int n = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				n += stripe.used - stripe.freeCount;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Off-heap memory allocated for blocks, in bytes.
+	 */
+	public long capacity() {
+		return (long)stripes.length*stripes[0].keys.length*SLOT;
+	}
+
+	/**
+	 * Number of blocks that were not admitted, because they were looked up less often than the
+	 * block they would have replaced.
+	 */
+	public long rejected() {
+		long n = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				n += stripe.rejected;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Number of blocks evicted to make room for others.
+	 */
+	public long evictions() {
+		long n = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				n += stripe.evictions;
+			}
+		}
+		return n;
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder(String.format("%d of %d blocks, %d rejected, %d evicted",
+				size(), capacity()/SLOT, rejected(), evictions()));
+		for (Segment segment : segments()) {
+			sb.append("\n  ").append(segment);
+		}
+		return sb.toString();
+	}
+
+	private static long key(Segment segment, int term, int block) {
+		return (long)segment.id << 56 | (term & 0xffffffffL) << 24 | block;
+	}
+
+	/**
+	 * Returns the stripe of a block, by the high bits of its key's hash. (The hash table and
+	 * the sketch use the low bits.)
+	 */
+	private Stripe stripe(long hash) {
+		return stripes[(int)(hash >>> 40) % stripes.length];
+	}
+
+	/**
+	 * Mixes the bits of a key into a hash.
+	 */
+	static long mix(long key) {
+		long x = (key ^ key >>> 33)*0xff51afd7ed558ccdL;
+		x = (x ^ x >>> 33)*0xc4ceb9fe1a85ec53L;
+		return x ^ x >>> 33;
+	}
+}
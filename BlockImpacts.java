@@ -0,0 +1,117 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class splits a posting list, in document id order, into blocks of BLOCK postings, and
+ * keeps for each block its last document id, the highest frequency in it, and the lowest norm
+ * (see BM25.norm) of its documents, a document whose length is not known counting as norm 1.
+ * No posting of a block can score more with BM25 than its highest frequency would in a document
+ * of its lowest norm (see BM25.bound), whatever the collection statistics are, so the impacts are
+ * worked out once, when a list is sealed, compressed or saved, and are kept with the list. New
+ * documents can be added at the end, since they come after every document in the list.
+ */
+class BlockImpacts {
+
+	static final int BLOCK = CompressedPostings.BLOCK;
+
+	/**
+	 * Last document id, highest frequency and lowest norm of each block.
+	 */
+	int[] lastDocs;
+	int[] maxFreqs;
+	byte[] minNorms;
+
+	/**
+	 * Number of blocks, and of postings in all of them.
+	 */
+	int blocks;
+	int size;
+
+	/**
+	 * Creates impacts for an empty list, with room for the given number of blocks.
+	 *
+	 * @param capacity Initial number of blocks
+	 */
+	BlockImpacts(int capacity) {
+		lastDocs = new int[Math.max(1, capacity)];
+		maxFreqs = new int[lastDocs.length];
+		minNorms = new byte[lastDocs.length];
+	}
+
+	/**
+	 * Works out the impacts of a posting list.
+	 *
+	 * @param sorted Posting list in document id order
+	 * @param norms Document norms
+	 * @return Impacts of the list
+	 */
+	static BlockImpacts of(PostingList sorted, byte[] norms) {
+		BlockImpacts impacts = new BlockImpacts((sorted.size() + BLOCK - 1)/BLOCK);
+		for (int i = 0; i < sorted.size(); i++) {
+			impacts.add(sorted.doc(i), sorted.freq(i), norms);
+		}
+		return impacts;
+	}
+
+	/**
+	 * Returns a copy of these impacts, which can be added to without changing these.
+	 */
+	BlockImpacts copy() {
+		BlockImpacts copy = new BlockImpacts(blocks + 1);
+		System.arraycopy(lastDocs, 0, copy.lastDocs, 0, blocks);
+		System.arraycopy(maxFreqs, 0, copy.maxFreqs, 0, blocks);
+		System.arraycopy(minNorms, 0, copy.minNorms, 0, blocks);
+		copy.blocks = blocks;
+		copy.size = size;
+		return copy;
+	}
+
+	/**
+	 * Last document id of the list, or -1 if it is empty.
+	 */
+	int lastDoc() {
+		return blocks == 0 ? -1 : lastDocs[blocks - 1];
+	}
+
+	/**
+	 * Adds a posting at the end of the list.
+	 *
+	 * @param doc Document id, after every document in the list
+	 * @param freq Frequency
+	 * @param norms Document norms
+	 */
+	void add(int doc, int freq, byte[] norms) {
+		int norm = doc < norms.length ? norms[doc] & 0xff : 0;
+		if (size % BLOCK == 0) {
+			addBlock(doc, freq, norm);
+		} else {
+			int b = blocks - 1;
+			lastDocs[b] = doc;
+			maxFreqs[b] = Math.max(maxFreqs[b], freq);
+			minNorms[b] = (byte)Math.min(minNorms[b] & 0xff, Math.max(1, norm));
+		}
+		size++;
+	}
+
+	/**
+	 * Adds a block, as read from the skip entries of compressed postings. Only the last block
+	 * can hold fewer than BLOCK postings, and size is left for the caller to set.
+	 *
+	 * @param lastDoc Last document id of the block
+	 * @param maxFreq Highest frequency in the block
+	 * @param minNorm Lowest norm in the block
+	 */
+	void addBlock(int lastDoc, int maxFreq, int minNorm) {
+		if (blocks == lastDocs.length) {
+			int cap = blocks + (blocks >> 1) + 1;
+			lastDocs = Arrays.copyOf(lastDocs, cap);
+			maxFreqs = Arrays.copyOf(maxFreqs, cap);
+			minNorms = Arrays.copyOf(minNorms, cap);
+		}
+		lastDocs[blocks] = lastDoc;
+		maxFreqs[blocks] = maxFreq;
+		minNorms[blocks] = (byte)Math.max(1, minNorm);
+		blocks++;
+	}
+}
@@ -0,0 +1,68 @@
+package search;
+
+/**
+ * This class bounds the BM25 scores of the postings of a list, for the block-max WAND search
+ * (see LittleSearchEngine.blockMaxWand): for each block of the list's impacts (see BlockImpacts),
+ * its last document id and the highest score any of its postings can get with a given scorer.
+ * The bounds only take one multiply and one division per block, from impacts kept with the
+ * list, so they are worked out for each search, with the statistics the search is scored with.
+ */
+class BlockMaxScores {
+
+	/**
+	 * List and scorer the bounds are for.
+	 */
+	final Postings list;
+	final BM25 scorer;
+
+	/**
+	 * Weight of the keyword (see BM25.weight).
+	 */
+	final float weight;
+
+	/**
+	 * Number of blocks, the last document id and highest score of each, and the highest score
+	 * of all.
+	 */
+	final int blocks;
+	final int[] lastDocs;
+	final float[] maxScores;
+	final float maxScore;
+
+	/**
+	 * Bounds the scores of a list's blocks from the list's impacts.
+	 *
+	 * @param list Posting list
+	 * @param impacts Impacts of the list
+	 * @param scorer BM25 scorer
+	 */
+	BlockMaxScores(Postings list, BlockImpacts impacts, BM25 scorer) {
+		this.list = list;
+		this.scorer = scorer;
+		weight = scorer.weight(list.size());
+		blocks = impacts.blocks;
+		lastDocs = impacts.lastDocs;
+		maxScores = new float[blocks];
+		float max = 0;
+		for (int b = 0; b < blocks; b++) {
+			maxScores[b] = scorer.bound(weight, impacts.maxFreqs[b], impacts.minNorms[b] & 0xff);
+			max = Math.max(max, maxScores[b]);
+		}
+		maxScore = max;
+	}
+
+	/**
+	 * Returns the first block, at or after the given one, whose last document id is at least
+	 * the given id, or the number of blocks if there is none.
+	 *
+	 * @param from Block to start from
+	 * @param doc Document id
+	 */
+	int block(int from, int doc) {
+		int b = from;
+		while (b < blocks && lastDocs[b] < doc) {
+			b++;
+		}
+		return b;
+	}
+}
@@ -0,0 +1,171 @@
+package search;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class is the compressed posting list of one keyword in a segment file, read in place
+ * from the mapped file, with its blocks decoded through a BlockCache. The skip entries are read
+ * from the file (see CompressedPostings); a block that a cursor stops in is copied out of the
+ * cache if it is there, and otherwise decoded from the file and offered to the cache. Cursors
+ * only use absolute reads of the mapped file, so any number of threads can read the list at once.
+ */
+class CachedPostings implements Postings {
+
+	static final int BLOCK = CompressedPostings.BLOCK;
+
+	private final ByteBuffer buf;
+	private final int at, size, term;
+	private final BlockCache.Segment segment;
+
+	/**
+	 * Wraps a posting list in a mapped segment file.
+	 *
+	 * @param buf Mapped file
+	 * @param at Position of the encoded postings in the file
+	 * @param size Number of postings
+	 * @param term Position of the keyword in the segment
+	 * @param segment Segment's handle in the block cache
+	 */
+	CachedPostings(ByteBuffer buf, int at, int size, int term, BlockCache.Segment segment) {
+		this.buf = buf;
+		this.at = at;
+		this.size = size;
+		this.term = term;
+		this.segment = segment;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Decodes the postings into a posting list in descending order of frequencies, with
+	 * equal frequencies in document id order.
+	 */
+	public PostingList decode() {
+		PostingList list = PostingList.copyOf(this);
+		list.sortByFrequency();
+		return list;
+	}
+
+	/**
+	 * Reads the impacts from the skip entries in the file, without decoding any block.
+	 */
+	public BlockImpacts impacts(byte[] norms) {
+		return CompressedPostings.impacts(buf, at, size);
+	}
+
+	/**
+	 * The postings are in document id order.
+	 */
+	public boolean documentOrder() {
+		return true;
+	}
+
+	/**
+	 * Returns a cursor over the postings, in document id order.
+	 */
+	public PostingCursor cursor() {
+		return docCursor();
+	}
+
+	/**
+	 * Returns a cursor over the postings, in document id order, which skips whole blocks
+	 * without decoding them.
+	 */
+	public DocCursor docCursor() {
+		return new DocCursor() {
+			// pos: next skip entry; left: postings after this block; i: next posting in this block
+			int pos = at, left = size, block = -1, count, i, base, blockLast, blockAt, doc, freq;
+			boolean started, loaded;
+			final int[] postings = new int[2*BLOCK];
+			final int[] entry = new int[CompressedPostings.SKIP_ENTRY];
+
+			public boolean next() {
+				if (i == count && !nextBlock()) {
+					return false;
+				}
+				if (!loaded) {
+					load();
+				}
+				doc = postings[2*i];
+				freq = postings[2*i + 1];
+				i++;
+				started = true;
+				return true;
+			}
+
+			public int doc() {
+				return doc;
+			}
+
+			public int freq() {
+				return freq;
+			}
+
+			public boolean advance(int target) {
+				if (started && doc >= target) {
+					return true;
+				}
+				// skip the rest of this block, and whole blocks, while they end before the target
+				while (i == count || blockLast < target) {
+					if (!nextBlock()) {
+						started = true;
+						doc = Integer.MAX_VALUE;
+						return false;
+					}
+				}
+				while (next()) {
+					if (doc >= target) {
+						return true;
+					}
+				}
+				return false;
+			}
+
+			/**
+			 * Reads the skip entry of the next block, without decoding the block.
+			 */
+			private boolean nextBlock() {
+				if (left == 0) {
+					i = count;
+					return false;
+				}
+				base = blockLast;
+				blockAt = CompressedPostings.readSkipEntry(buf, pos, entry);
+				blockLast = base + entry[0];
+				pos = blockAt + entry[1];
+				count = Math.min(BLOCK, left);
+				left -= count;
+				block++;
+				i = 0;
+				loaded = false;
+				return true;
+			}
+
+			/**
+			 * Gets the current block from the cache, or decodes it from the file.
+			 */
+			private void load() {
+				if (segment.cache.get(segment, term, block, postings) < 0) {
+					int end = pos, d = base;
+					pos = blockAt;
+					for (int j = 0; j < count; j++) {
+						d += readInt();
+						postings[2*j] = d;
+						postings[2*j + 1] = readInt();
+					}
+					pos = end;
+					segment.cache.put(segment, term, block, postings, count);
+				}
+				loaded = true;
+			}
+
+			private int readInt() {
+				long r = VarInt.read(buf, pos);
+				pos = (int)r;
+				return (int)(r >>> 32);
+			}
+		};
+	}
+}
@@ -0,0 +1,301 @@
+package search;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class searches a cluster of ClusterNode processes, each of which hosts one shard of a
+ * document-partitioned index. A search is sent to every node at once, and the top k documents
+ * of each node are merged into the global top k, as PartitionedSearchEngine does in a single
+ * process.
+ *
+ * Every search has a timeout. Nodes that have not answered by then (or that cannot be reached)
+ * are left out, and the result is marked as partial, as are nodes that answer with an error. A
+ * connection that timed out or failed is closed, and a new one is opened for the next search,
+ * so a node that comes back is used again; a connection on which a node reported an error is
+ * kept.
+ * Idle connections are kept for reuse, and several searches can run at the same time.
+ */
+public class ClusterCoordinator {
+
+	/**
+	 * Result of a cluster search: the documents, and how many of the nodes answered in time.
+	 */
+	public static class Result {
+
+		/**
+		 * Names of the best documents, best first.
+		 */
+		public final ArrayList<String> documents;
+
+		/**
+		 * Number of nodes that answered, and number of nodes searched.
+		 */
+		public final int answered, nodes;
+
+		Result(ArrayList<String> documents, int answered, int nodes) {
+			this.documents = documents;
+			this.answered = answered;
+			this.nodes = nodes;
+		}
+
+		/**
+		 * Returns true if some nodes did not answer, so documents on them may be missing.
+		 */
+		public boolean partial() {
+			return answered < nodes;
+		}
+
+		public String toString() {
+			return documents + (partial() ? " (partial: " + answered + " of " + nodes + " nodes)" : "");
+		}
+	}
+
+	private final InetSocketAddress[] nodes;
+	private final ArrayList<ConcurrentLinkedQueue<Connection>> idle;
+	private final int timeoutMillis;
+	private final ExecutorService pool;
+	private final AtomicInteger nextId = new AtomicInteger();
+
+	/**
+	 * Creates a coordinator for the given nodes. No connection is opened until the first search.
+	 *
+	 * @param timeoutMillis Time to wait for the nodes on each search, in milliseconds
+	 * @param nodes Addresses of the nodes, one per shard
+	 */
+	public ClusterCoordinator(int timeoutMillis, InetSocketAddress... nodes) {
+		this.nodes = nodes.clone();
+		this.timeoutMillis = timeoutMillis;
+		idle = new ArrayList<ConcurrentLinkedQueue<Connection>>(nodes.length);
+		for (int n = 0; n < nodes.length; n++) {
+			idle.add(new ConcurrentLinkedQueue<Connection>());
+		}
+		pool = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "coordinator");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Search result for "kw1 or kw2", as LittleSearchEngine.top5search, from the nodes that
+	 * answered in time.
+	 *
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @return List of NAMES of at most 5 documents in which either kw1 or kw2 occurs, arranged in
+	 *         descending order of frequencies
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2) {
+		return topK(5, kw1, kw2).documents;
+	}
+
+	/**
+	 * Search result for "kw1 or kw2 or ...", ranked as by LittleSearchEngine.topK, over the
+	 * documents of the nodes that answer within the timeout.
+	 *
+	 * @param k Maximum number of documents in the result
+	 * @param keywords Keywords to search for, in order of preference for breaking ties
+	 * @return Documents, and how many nodes answered
+	 */
+	public Result topK(final int k, final String... keywords) {
+		if (k <= 0) {
+			return new Result(new ArrayList<String>(), nodes.length, nodes.length);
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		final int id = nextId.incrementAndGet();
+		ArrayList<Future<TopHits>> searches = new ArrayList<Future<TopHits>>(nodes.length);
+		final HashMap<Integer,String> names = new HashMap<Integer,String>();
+		for (int n = 0; n < nodes.length; n++) {
+			final int node = n;
+			searches.add(pool.submit(new Callable<TopHits>() {
+				public TopHits call()
+				throws IOException {
+					return search(node, id, k, keywords, names);
+				}
+			}));
+		}
+		ArrayList<TopHits> parts = new ArrayList<TopHits>(nodes.length);
+		for (Future<TopHits> search : searches) {
+			try {
+				parts.add(search.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+			} catch (TimeoutException e) {
+				search.cancel(true);
+			} catch (ExecutionException e) {
+				// node is down or failed; it is left out of the result
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		TopHits hits = TopHits.merge(k, parts);
+		ArrayList<String> fin = new ArrayList<String>(hits.size);
+		synchronized (names) {
+			for (int i = 0; i < hits.size; i++) {
+				fin.add(names.get(hits.docs[i]));
+			}
+		}
+		return new Result(fin, parts.size(), nodes.length);
+	}
+
+	/**
+	 * Asks every node for its shard number, shard count and number of documents.
+	 *
+	 * @return For each node, {shard, shardCount, documents}, or null if it did not answer
+	 */
+	int[][] ping() {
+		int[][] info = new int[nodes.length][];
+		for (int n = 0; n < nodes.length; n++) {
+			Connection c = null;
+			try {
+				c = connection(n);
+				c.out.writeByte(ClusterNode.PING);
+				c.out.flush();
+				c.expect(ClusterNode.OK);
+				info[n] = new int[] {c.in.readInt(), c.in.readInt(), c.in.readInt()};
+				idle.get(n).add(c);
+			} catch (IOException e) {
+				if (c != null) {
+					c.close();
+				}
+			}
+		}
+		return info;
+	}
+
+	/**
+	 * Tells every node to exit.
+	 */
+	void shutdownNodes() {
+		for (int n = 0; n < nodes.length; n++) {
+			try {
+				Connection c = connection(n);
+				c.out.writeByte(ClusterNode.SHUTDOWN);
+				c.out.flush();
+				c.in.read();
+				c.close();
+			} catch (IOException e) {
+				// already down
+			}
+		}
+	}
+
+	/**
+	 * Closes all idle connections and stops the coordinator's threads.
+	 */
+	public void close() {
+		pool.shutdownNow();
+		for (ConcurrentLinkedQueue<Connection> queue : idle) {
+			Connection c;
+			while ((c = queue.poll()) != null) {
+				c.close();
+			}
+		}
+	}
+
+	/**
+	 * Sends a search to one node and reads its top documents. The connection is only given
+	 * back for reuse if the whole response was read, which includes an ERROR response: the node
+	 * failed the search, but the connection is still in step with it.
+	 *
+	 * @throws IOException If the connection failed, timed out or got a malformed response
+	 * @throws IllegalStateException If the node answered with an error
+	 */
+	private TopHits search(int node, int id, int k, String[] keywords, HashMap<Integer,String> names)
+	throws IOException {
+		Connection c = connection(node);
+		try {
+			c.out.writeByte(ClusterNode.SEARCH);
+			c.out.writeInt(id);
+			c.out.writeInt(k);
+			c.out.writeShort(keywords.length);
+			for (String kw : keywords) {
+				c.out.writeUTF(kw);
+			}
+			c.out.flush();
+			if (c.in.readInt() != id) {
+				throw new IOException("Response to another search");
+			}
+			byte status = c.in.readByte();
+			if (status == ClusterNode.ERROR) {
+				String message = c.in.readUTF();
+				idle.get(node).add(c);
+				c = null;
+				throw new IllegalStateException("Search failed on node " + node + ": " + message);
+			}
+			if (status != ClusterNode.OK) {
+				throw new IOException("Unexpected status");
+			}
+			int n = c.in.readInt();
+			TopHits hits = new TopHits(n);
+			for (int i = 0; i < n; i++) {
+				int doc = c.in.readInt(), freq = c.in.readInt(), rank = c.in.readInt();
+				String name = c.in.readUTF();
+				hits.add(doc, freq, rank);
+				synchronized (names) {
+					names.put(doc, name);
+				}
+			}
+			idle.get(node).add(c);
+			c = null;
+			return hits;
+		} finally {
+			if (c != null) {
+				c.close();
+			}
+		}
+	}
+
+	/**
+	 * Returns an idle connection to the node, or opens a new one. Reads on it time out after
+	 * the search timeout.
+	 */
+	private Connection connection(int node)
+	throws IOException {
+		Connection c = idle.get(node).poll();
+		return c != null ? c : new Connection(nodes[node], timeoutMillis);
+	}
+
+	/**
+	 * Connection to one node.
+	 */
+	private static class Connection {
+		final Socket socket;
+		final DataInputStream in;
+		final DataOutputStream out;
+
+		Connection(InetSocketAddress address, int timeoutMillis)
+		throws IOException {
+			socket = new Socket();
+			try {
+				socket.connect(address, timeoutMillis);
+				socket.setSoTimeout(timeoutMillis);
+				socket.setTcpNoDelay(true);
+				in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			} catch (IOException e) {
+				socket.close();
+				throw e;
+			}
+		}
+
+		void expect(byte status)
+		throws IOException {
+			if (in.readByte() != status) {
+				throw new IOException("Unexpected status");
+			}
+		}
+
+		void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package search;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * This class is one node of a search cluster: a process that hosts one shard of a
+ * document-partitioned index (see PartitionedSearchEngine), and answers searches from a
+ * ClusterCoordinator over TCP. The node indexes every shardCount-th document of the docs file,
+ * starting at its shard number, and gives document ids in listing order, so ids are the same on
+ * every node.
+ *
+ * The protocol is binary, over DataInput/DataOutput, one request and one response at a time on
+ * a connection. A request starts with an op byte:
+ *
+ *   PING      -> OK, int shard, int shardCount, int documents indexed by this node
+ *   SEARCH    int id, int k, unsigned short keyword count, UTF keywords
+ *             -> int id, OK, int n, n times (int doc, int freq, int rank, UTF name)
+ *                int id, ERROR, UTF message
+ *   SHUTDOWN  -> OK, and the node process exits
+ *
+ * Usage: ClusterNode docsFile noiseWordsFile shard shardCount port [delayMillis]
+ *
+ * delayMillis (default 0) slows every search down, to test timeouts. The node listens on the
+ * loopback address only, and prints "ready" with its port when it accepts searches.
+ */
+public class ClusterNode {
+
+	static final byte PING = 1, SEARCH = 2, SHUTDOWN = 3;
+	static final byte OK = 0, ERROR = 1;
+
+	final LittleSearchEngine engine;
+	final int shard, shardCount, indexed;
+	private final int delayMillis;
+	private ServerSocket server;
+
+	/**
+	 * Builds the shard of the index that this node hosts.
+	 *
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param shard Number of this node's shard, from 0 to shardCount-1
+	 * @param shardCount Number of shards in the cluster
+	 * @param delayMillis Time to wait before answering each search, in milliseconds
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 */
+	ClusterNode(String docsFile, String noiseWordsFile, int shard, int shardCount, int delayMillis)
+	throws FileNotFoundException {
+		if (shard < 0 || shard >= shardCount) {
+			throw new IllegalArgumentException("Shard " + shard + " is not in 0.." + (shardCount - 1));
+		}
+		this.shard = shard;
+		this.shardCount = shardCount;
+		this.delayMillis = delayMillis;
+		engine = new LittleSearchEngine();
+		engine.loadNoiseWords(noiseWordsFile);
+		ArrayList<String> docs = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(docsFile));
+		while (sc.hasNext()) {
+			String doc = sc.next();
+			if (engine.documents.id(doc) < 0) {
+				engine.documents.add(doc);
+				docs.add(doc);
+			}
+		}
+		engine.bulkLoad();
+		int n = 0;
+		for (int d = shard; d < docs.size(); d += shardCount) {
+			engine.mergeKeyWords(engine.loadKeyWords(docs.get(d)));
+			n++;
+		}
+		engine.seal();
+		indexed = n;
+	}
+
+	/**
+	 * Accepts connections on the given loopback port until the node is shut down, serving each
+	 * connection on a thread of its own.
+	 *
+	 * @param port Port number, or 0 for any free port
+	 * @throws IOException If the port cannot be listened on
+	 */
+	void serve(int port)
+	throws IOException {
+		server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		System.out.println("ready " + server.getLocalPort());
+		System.out.flush();
+		while (!server.isClosed()) {
+			final Socket socket;
+			try {
+				socket = server.accept();
+			} catch (SocketException e) {
+				// closed by a SHUTDOWN request
+				break;
+			}
+			Thread t = new Thread("connection") {
+				public void run() {
+					handle(socket);
+				}
+			};
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	/**
+	 * Answers requests on one connection until the coordinator closes it.
+	 */
+	private void handle(Socket socket) {
+		try {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			while (true) {
+				int op = in.read();
+				if (op < 0) {
+					break;
+				}
+				if (op == PING) {
+					out.writeByte(OK);
+					out.writeInt(shard);
+					out.writeInt(shardCount);
+					out.writeInt(indexed);
+				} else if (op == SEARCH) {
+					search(in, out);
+				} else if (op == SHUTDOWN) {
+					out.writeByte(OK);
+					out.flush();
+					server.close();
+					System.exit(0);
+				} else {
+					throw new IOException("Unknown op " + op);
+				}
+				out.flush();
+			}
+		} catch (IOException e) {
+			// the connection is dropped; the coordinator opens another one
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * Reads a SEARCH request, and writes its response.
+	 */
+	private void search(DataInputStream in, DataOutputStream out)
+	throws IOException {
+		int id = in.readInt();
+		int k = in.readInt();
+		String[] keywords = new String[in.readUnsignedShort()];
+		for (int i = 0; i < keywords.length; i++) {
+			keywords[i] = in.readUTF();
+		}
+		out.writeInt(id);
+		TopHits hits;
+		try {
+			if (delayMillis > 0) {
+				Thread.sleep(delayMillis);
+			}
+			hits = engine.topHits(k, keywords);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			out.writeByte(ERROR);
+			out.writeUTF("Interrupted");
+			return;
+		} catch (RuntimeException e) {
+			out.writeByte(ERROR);
+			out.writeUTF(String.valueOf(e));
+			return;
+		}
+		out.writeByte(OK);
+		out.writeInt(hits.size);
+		for (int i = 0; i < hits.size; i++) {
+			out.writeInt(hits.docs[i]);
+			out.writeInt(hits.freqs[i]);
+			out.writeInt(hits.ranks[i]);
+			out.writeUTF(engine.documents.name(hits.docs[i]));
+		}
+	}
+
+	public static void main(String[] args)
+	throws IOException {
+		if (args.length < 5) {
+			System.out.println("Usage: ClusterNode docsFile noiseWordsFile shard shardCount port [delayMillis]");
+			return;
+		}
+		int delay = args.length > 5 ? Integer.parseInt(args[5]) : 0;
+		ClusterNode node = new ClusterNode(args[0], args[1], Integer.parseInt(args[2]),
+				Integer.parseInt(args[3]), delay);
+		node.serve(Integer.parseInt(args[4]));
+	}
+}
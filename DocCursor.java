@@ -0,0 +1,17 @@
+package search;
+
+/**
+ * A cursor over postings in document id order, which can skip ahead to a given document.
+ * Like a PostingCursor, it starts before the first posting.
+ */
+interface DocCursor extends PostingCursor {
+
+	/**
+	 * Moves forward to the first posting whose document id is at least the given one. Does not
+	 * move if the cursor is already at such a posting.
+	 *
+	 * @param target Document id
+	 * @return False if there is no such posting
+	 */
+	boolean advance(int target);
+}
@@ -0,0 +1,42 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class is the hash table of keyword occurrences in one document, as returned by
+ * LittleSearchEngine.loadKeyWords, with the document's name and length. Loading a document's
+ * keywords does not change the index: the document is only given an id, and its length only
+ * recorded, when its keywords are merged (see LittleSearchEngine.register). Until then, its
+ * occurrences have document id -1, unless the document was registered beforehand.
+ */
+class DocumentKeywords extends HashMap<String,Occurrence> {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Name of the document.
+	 */
+	final String name;
+
+	/**
+	 * Id of the document in the occurrences, or -1 if it has not been registered.
+	 */
+	int document;
+
+	/**
+	 * Number of keywords in the document.
+	 */
+	int length;
+
+	/**
+	 * Creates an empty table for the given document.
+	 *
+	 * @param name Document name
+	 * @param document Document id, or -1 if the document has not been registered
+	 */
+	DocumentKeywords(String name, int document) {
+		super(100, 2.0f);
+		this.name = name;
+		this.document = document;
+	}
+}
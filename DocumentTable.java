@@ -0,0 +1,129 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class assigns dense integer ids to document names, in the order in which the documents
+ * are first seen, and maps the ids back to names. Occurrences refer to documents by id, and names
+ * are only looked up when search results are handed back. It also keeps the length of each
+ * document (its number of keywords) for BM25 scoring, quantized to one byte (see BM25.norm), and
+ * the total length of the documents. It is safe for use by several threads.
+ */
+class DocumentTable {
+
+	private final ArrayList<String> names = new ArrayList<String>();
+	private final HashMap<String,Integer> ids = new HashMap<String,Integer>();
+	private byte[] norms = new byte[64];
+	private long totalLength;
+	private int lengths;
+
+	/**
+	 * Returns the id of the given document, giving it the next id if it has not been seen before.
+	 *
+	 * @param name Document name
+	 * @return Document id
+	 */
+	synchronized int add(String name) {
+		Integer id = ids.get(name);
+		if (id == null) {
+			id = names.size();
+			names.add(name);
+			ids.put(name, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id of the given document.
+	 *
+	 * @param name Document name
+	 * @return Document id, or -1 if the document has not been seen
+	 */
+	synchronized int id(String name) {
+		Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Returns the name of the document with the given id.
+	 *
+	 * @param id Document id
+	 * @return Document name
+	 */
+	synchronized String name(int id) {
+		return names.get(id);
+	}
+
+	/**
+	 * Records the length of a document. A document's length is only counted in the total once,
+	 * when it is first recorded.
+	 *
+	 * @param id Document id
+	 * @param length Number of keywords in the document
+	 */
+	synchronized void setLength(int id, int length) {
+		if (id >= norms.length) {
+			norms = Arrays.copyOf(norms, Math.max(norms.length*2, id + 1));
+		}
+		if (norms[id] == 0) {
+			totalLength += length;
+			lengths++;
+		}
+		norms[id] = (byte)BM25.norm(length);
+	}
+
+	/**
+	 * Sets the lengths of documents read back from a segment, into a table that has none yet.
+	 *
+	 * @param saved Norm of each document, by id
+	 * @param total Total length of the documents with norms
+	 */
+	synchronized void setNorms(byte[] saved, long total) {
+		norms = Arrays.copyOf(saved, Math.max(saved.length, norms.length));
+		lengths = 0;
+		for (byte norm : saved) {
+			if (norm != 0) {
+				lengths++;
+			}
+		}
+		totalLength = total;
+	}
+
+	/**
+	 * Returns the norm (quantized length) of each document, by id. The array is shared: it may be
+	 * longer than the number of documents, and is replaced rather than grown, so documents added
+	 * after it was returned may be missing from it. Documents whose length is not recorded have
+	 * norm 0.
+	 */
+	synchronized byte[] norms() {
+		return norms;
+	}
+
+	/**
+	 * Total length of the documents whose lengths are recorded.
+	 */
+	synchronized long totalLength() {
+		return totalLength;
+	}
+
+	/**
+	 * Number of documents whose lengths are recorded.
+	 */
+	synchronized int lengths() {
+		return lengths;
+	}
+
+	/**
+	 * Returns the names of all documents, by id.
+	 */
+	synchronized ArrayList<String> names() {
+		return new ArrayList<String>(names);
+	}
+
+	/**
+	 * Number of documents.
+	 */
+	synchronized int size() {
+		return names.size();
+	}
+}
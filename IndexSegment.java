@@ -0,0 +1,385 @@
+package search;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * This class is a search engine index saved in a binary segment file. A segment holds the
+ * document table, the noise words, and the posting list of every keyword. It is opened by
+ * memory-mapping the file: the document table and noise words are read right away, but the
+ * keywords are found by binary search over the mapped term dictionary, and a posting list is
+ * only decoded when its keyword is looked up.
+ *
+ * The file layout (all numbers big-endian) is:
+ * <pre>
+ *   header:     int MAGIC, int VERSION, int termCount, long docsAt, long noiseAt, long dictAt
+ *   postings:   for each keyword, its compressed postings, in blocks with skip entries
+ *               that hold the blocks' impacts (see CompressedPostings)
+ *   documents:  int n, then n names, then n document norms of one byte (see BM25), then
+ *               long total length of the documents
+ *   noise:      int n, then n noise words
+ *   dictionary: for each keyword in UTF-8 byte order, its name, int postings count,
+ *               long postings position and int postings length in bytes, followed by
+ *               termCount int positions of the entries, relative to dictAt
+ * </pre>
+ * Names are written as a short byte length followed by UTF-8 bytes. A segment file is limited
+ * to 2 GB, the most that can be mapped at one time.
+ */
+class IndexSegment {
+
+	static final int MAGIC = 0x4C534547; // "LSEG"
+	static final int VERSION = 5;
+	static final int HEADER = 4 + 4 + 4 + 8 + 8 + 8;
+
+	/**
+	 * Name of the segment file.
+	 */
+	final String name;
+
+	/**
+	 * File key (where the file system has one), size and modification time of the file when it
+	 * was opened, which tell it from another file later written under the same name.
+	 */
+	final String version;
+
+	private final MappedByteBuffer buf;
+	private final int termCount;
+	private final int dictAt, indexAt;
+
+	/**
+	 * Document names and norms by id, and noise words, read when the segment is opened.
+	 */
+	final ArrayList<String> documents;
+	final byte[] norms;
+	final long totalLength;
+	final ArrayList<String> noiseWords;
+
+	private IndexSegment(String name, String version, MappedByteBuffer buf)
+	throws IOException {
+		this.name = name;
+		this.version = version;
+		this.buf = buf;
+		if (buf.limit() < HEADER || buf.getInt(0) != MAGIC) {
+			throw new IOException("Not an index segment");
+		}
+		int format = buf.getInt(4);
+		if (format != VERSION) {
+			throw new IOException("Unsupported index segment version " + format);
+		}
+		termCount = buf.getInt(8);
+		int docsAt = (int)buf.getLong(12);
+		int noiseAt = (int)buf.getLong(20);
+		dictAt = (int)buf.getLong(28);
+		documents = readNames(docsAt);
+		norms = new byte[documents.size()];
+		for (int d = 0; d < norms.length; d++) {
+			norms[d] = buf.get(noiseAt - 8 - norms.length + d);
+		}
+		totalLength = buf.getLong(noiseAt - 8);
+		noiseWords = readNames(noiseAt);
+		indexAt = buf.limit() - 4*termCount;
+	}
+
+	/**
+	 * Opens a segment file.
+	 *
+	 * @param indexFile Name of the segment file
+	 * @return Opened segment
+	 * @throws IOException If the file cannot be read, or is not a segment
+	 */
+	static IndexSegment open(String indexFile)
+	throws IOException {
+		Path path = Paths.get(indexFile);
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Index segment is larger than 2 GB");
+			}
+			BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			String version = attributes.fileKey() + " " + channel.size() + " "
+					+ attributes.lastModifiedTime().toMillis();
+			return new IndexSegment(indexFile, version, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Writes the given index to a segment file. The segment is written to a temporary file
+	 * first and then moved into place, so a segment that is open (mapped) may be overwritten.
+	 * If the segment cannot be written, the temporary file is deleted.
+	 *
+	 * @param indexFile Name of the segment file
+	 * @param index Compressed posting list of each keyword
+	 * @param documents Document names, by id
+	 * @param norms Document norms, by id (documents past its end get norm 0)
+	 * @param totalLength Total length of the documents with norms
+	 * @param noiseWords Noise words
+	 * @throws IOException If the file cannot be written
+	 */
+	static void write(String indexFile, Map<String,CompressedPostings> index,
+			List<String> documents, byte[] norms, long totalLength, Collection<String> noiseWords)
+	throws IOException {
+		ArrayList<byte[]> terms = new ArrayList<byte[]>(index.size());
+		for (String term : index.keySet()) {
+			terms.add(term.getBytes(StandardCharsets.UTF_8));
+		}
+		Collections.sort(terms, BYTE_ORDER);
+		
+		Path target = Paths.get(indexFile).toAbsolutePath();
+		Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+		boolean moved = false;
+		try {
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(terms.size());
+				out.writeLong(0);
+				out.writeLong(0);
+				out.writeLong(0);
+
+				long[] at = new long[terms.size()];
+				for (int t = 0; t < terms.size(); t++) {
+					at[t] = out.size();
+					out.write(index.get(new String(terms.get(t), StandardCharsets.UTF_8)).data);
+				}
+				long docsAt = out.size();
+				writeNames(out, documents);
+				for (int d = 0; d < documents.size(); d++) {
+					out.writeByte(d < norms.length ? norms[d] : 0);
+				}
+				out.writeLong(totalLength);
+				long noiseAt = out.size();
+				writeNames(out, noiseWords);
+				long dictAt = out.size();
+				int[] entries = new int[terms.size()];
+				for (int t = 0; t < terms.size(); t++) {
+					entries[t] = (int)(out.size() - dictAt);
+					CompressedPostings packed = index.get(new String(terms.get(t), StandardCharsets.UTF_8));
+					writeName(out, terms.get(t));
+					out.writeInt(packed.size());
+					out.writeLong(at[t]);
+					out.writeInt(packed.data.length);
+				}
+				for (int e : entries) {
+					out.writeInt(e);
+				}
+				if (out.size() == Integer.MAX_VALUE) {
+					throw new IOException("Index segment is larger than 2 GB");
+				}
+				out.close();
+
+				RandomAccessFile raf = new RandomAccessFile(tmp.toFile(), "rw");
+				try {
+					raf.seek(12);
+					raf.writeLong(docsAt);
+					raf.writeLong(noiseAt);
+					raf.writeLong(dictAt);
+				} finally {
+					raf.close();
+				}
+			} finally {
+				out.close();
+			}
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			moved = true;
+		} finally {
+			if (!moved) {
+				Files.deleteIfExists(tmp);
+			}
+		}
+	}
+
+	/**
+	 * Number of keywords.
+	 */
+	int termCount() {
+		return termCount;
+	}
+
+	/**
+	 * Returns the t-th keyword, in sorted order.
+	 */
+	String term(int t) {
+		int e = dictAt + buf.getInt(indexAt + 4*t);
+		int len = buf.getShort(e) & 0xffff;
+		byte[] b = new byte[len];
+		for (int i = 0; i < len; i++) {
+			b[i] = buf.get(e + 2 + i);
+		}
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the compressed posting list of the t-th keyword, copied out of the mapped file.
+	 */
+	CompressedPostings compressed(int t) {
+		int e = dictAt + buf.getInt(indexAt + 4*t);
+		int at = e + 2 + (buf.getShort(e) & 0xffff);
+		int count = buf.getInt(at);
+		int p = (int)buf.getLong(at + 4);
+		byte[] data = new byte[buf.getInt(at + 12)];
+		ByteBuffer src = buf.duplicate();
+		src.position(p);
+		src.get(data);
+		return new CompressedPostings(data, count);
+	}
+
+	/**
+	 * Returns the compressed posting list of the given keyword.
+	 *
+	 * @param keyword Keyword
+	 * @return Compressed posting list, or null if the keyword is not in the segment
+	 */
+	CompressedPostings compressed(String keyword) {
+		int t = find(keyword);
+		return t < 0 ? null : compressed(t);
+	}
+
+	/**
+	 * Returns the posting list of the given keyword, read in place from the mapped file, with its
+	 * blocks decoded through a block cache.
+	 *
+	 * @param keyword Keyword
+	 * @param blocks Handle of this segment in the block cache
+	 * @return Posting list, or null if the keyword is not in the segment
+	 */
+	CachedPostings cached(String keyword, BlockCache.Segment blocks) {
+		int t = find(keyword);
+		if (t < 0) {
+			return null;
+		}
+		int e = dictAt + buf.getInt(indexAt + 4*t);
+		int at = e + 2 + (buf.getShort(e) & 0xffff);
+		return new CachedPostings(buf, (int)buf.getLong(at + 4), buf.getInt(at), t, blocks);
+	}
+
+	/**
+	 * Returns the position of the given keyword in sorted order, or -1 if it is not in the
+	 * segment. Keywords are compared as UTF-8 bytes in the mapped file, without decoding them.
+	 */
+	int find(String keyword) {
+		byte[] key = keyword.getBytes(StandardCharsets.UTF_8);
+		int lo = 0, hi = termCount - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int cmp = compare(mid, key, Integer.MAX_VALUE);
+			if (cmp == 0) {
+				return mid;
+			}
+			if (cmp < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds the keywords that start with the given prefix to a list, in sorted order, up to the
+	 * given number of them. The first is found by binary search over the mapped dictionary.
+	 *
+	 * @param prefix Prefix
+	 * @param max Most keywords to add
+	 * @param into List to add the keywords to
+	 * @return Number of keywords added
+	 */
+	int prefixed(String prefix, int max, List<String> into) {
+		byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+		// first keyword not less than the prefix
+		int lo = 0, hi = termCount;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (compare(mid, key, Integer.MAX_VALUE) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		int added = 0;
+		for (int t = lo; t < termCount && added < max && compare(t, key, key.length) == 0; t++) {
+			into.add(term(t));
+			added++;
+		}
+		return added;
+	}
+
+	/**
+	 * Compares the first n bytes (or all, if there are fewer) of the t-th keyword with the key,
+	 * as unsigned bytes, without decoding the keyword.
+	 */
+	private int compare(int t, byte[] key, int n) {
+		int e = dictAt + buf.getInt(indexAt + 4*t);
+		int len = Math.min(buf.getShort(e) & 0xffff, n);
+		int m = Math.min(len, key.length);
+		for (int i = 0; i < m; i++) {
+			int cmp = (buf.get(e + 2 + i) & 0xff) - (key[i] & 0xff);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return len - Math.min(key.length, n);
+	}
+
+	private ArrayList<String> readNames(int at) {
+		int n = buf.getInt(at);
+		ArrayList<String> names = new ArrayList<String>(n);
+		at += 4;
+		for (int i = 0; i < n; i++) {
+			int len = buf.getShort(at) & 0xffff;
+			byte[] b = new byte[len];
+			for (int j = 0; j < len; j++) {
+				b[j] = buf.get(at + 2 + j);
+			}
+			names.add(new String(b, StandardCharsets.UTF_8));
+			at += 2 + len;
+		}
+		return names;
+	}
+
+	private static void writeNames(DataOutputStream out, Collection<String> names)
+	throws IOException {
+		out.writeInt(names.size());
+		for (String name : names) {
+			writeName(out, name);
+		}
+	}
+
+	private static void writeName(DataOutputStream out, String name)
+	throws IOException {
+		writeName(out, name.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void writeName(DataOutputStream out, byte[] b)
+	throws IOException {
+		if (b.length > 0xffff) {
+			throw new IOException("Name too long for index segment");
+		}
+		out.writeShort(b.length);
+		out.write(b);
+	}
+
+	/**
+	 * Order of keywords in the dictionary: unsigned UTF-8 bytes.
+	 */
+	static final Comparator<byte[]> BYTE_ORDER = new Comparator<byte[]>() {
+		public int compare(byte[] a, byte[] b) {
+			int n = Math.min(a.length, b.length);
+			for (int i = 0; i < n; i++) {
+				if (a[i] != b[i]) {
+					return (a[i] & 0xff) - (b[i] & 0xff);
+				}
+			}
+			return a.length - b.length;
+		}
+	};
+}
@@ -0,0 +1,92 @@
+package search;
+
+/**
+ * This class holds the keyword rules shared by getKeyWord and the document tokenizer. A word
+ * is a keyword candidate if it is a run of letters followed only by (trailing) non-letters.
+ * Characters are classified with a precomputed ASCII table, so nothing is allocated to test
+ * a word; characters outside the ASCII range are never letters or white space.
+ */
+class KeywordNormalizer {
+
+	/**
+	 * Character classes, indexed by ASCII value.
+	 */
+	static final byte OTHER = 0, LETTER = 1, SPACE = 2;
+	static final byte[] CLASS = new byte[256];
+	static {
+		for (int c = 'a'; c <= 'z'; c++) {
+			CLASS[c] = LETTER;
+			CLASS[c - 'a' + 'A'] = LETTER;
+		}
+		for (int c = 9; c <= 13; c++) {
+			CLASS[c] = SPACE;
+		}
+		for (int c = 28; c <= 32; c++) {
+			CLASS[c] = SPACE;
+		}
+	}
+
+	/**
+	 * Reusable buffer for lower-casing, one per thread.
+	 */
+	private static final ThreadLocal<char[]> BUFFER = new ThreadLocal<char[]>() {
+		protected char[] initialValue() {
+			return new char[64];
+		}
+	};
+
+	/**
+	 * Returns the class of a character.
+	 */
+	static byte classOf(char c) {
+		return c < 128 ? CLASS[c] : OTHER;
+	}
+
+	/**
+	 * Returns the number of leading letters in the given word if the word passes the letter
+	 * test, i.e. if all characters after the leading letters are non-letters.
+	 *
+	 * @param word Candidate word
+	 * @return Length of the keyword in the word, or 0 if the word is not a keyword candidate
+	 */
+	static int letters(CharSequence word) {
+		int n = word.length();
+		int len = 0;
+		while (len < n && classOf(word.charAt(len)) == LETTER) {
+			len++;
+		}
+		for (int i = len; i < n; i++) {
+			if (classOf(word.charAt(i)) == LETTER) {
+				return 0;
+			}
+		}
+		return len;
+	}
+
+	/**
+	 * Returns the first len characters of the given word in lower case. The word itself is
+	 * returned if it is already a lower case keyword, otherwise this is the only allocation.
+	 *
+	 * @param word Word that passed the letter test
+	 * @param len Length returned by letters
+	 * @return Keyword, in lower case
+	 */
+	static String keyword(String word, int len) {
+		int i = 0;
+		while (i < len && word.charAt(i) >= 'a') {
+			i++;
+		}
+		if (i == len) {
+			return len == word.length() ? word : word.substring(0, len);
+		}
+		char[] buf = BUFFER.get();
+		if (buf.length < len) {
+			buf = new char[Math.max(len, buf.length*2)];
+			BUFFER.set(buf);
+		}
+		for (i = 0; i < len; i++) {
+			buf[i] = (char)(word.charAt(i) | 0x20);
+		}
+		return new String(buf, 0, len);
+	}
+}
@@ -1,76 +1,147 @@
 package search;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * This class encapsulates an occurrence of a keyword in a document. It stores the
- * document name, and the frequency of occurrence in that document. Occurrences are
- * associated with keywords in an index hash table.
- * 
- * @author Sesh Venugopal
- * 
+ * This class builds an index of keywords. Each keyword maps to a set of documents in
+ * which it occurs, with frequency of occurrence in each document. Once the index is built,
+ * the documents can searched on for keywords.
+ *
  */
-class Occurrence {
+public class LittleSearchEngine {
+	
 	/**
-	 * Document in which a keyword occurs.
+	 * This is a hash table of all keywords. The key is the actual keyword, and the associated value is
+	 * the posting list of all occurrences of the keyword in documents. The posting list is maintained in
+	 * descending order of occurrence frequencies. In concurrent mode this is a ConcurrentHashMap, and
+	 * a posting list is never changed once it is in the table; it is replaced by an updated copy.
 	 */
-	String document;
+	Map<String,PostingList> keywordsIndex;
 	
 	/**
-	 * The frequency (number of times) the keyword occurs in the above document.
+	 * The hash table of all noise words - mapping is from word to itself.
 	 */
-	int frequency;
+	HashMap<String,String> noiseWords;
 	
 	/**
-	 * Initializes this occurrence with the given document,frequency pair.
-	 * 
-	 * @param doc Document name
-	 * @param freq Frequency
+	 * Names of all indexed documents, by document id.
 	 */
-	public Occurrence(String doc, int freq) {
-		document = doc;
-		frequency = freq;
-	}
+	DocumentTable documents;
 	
-	public String toString() {
-		return "(" + document + "," + frequency + ")";
-	}
-}
-
-/**
- * This class builds an index of keywords. Each keyword maps to a set of documents in
- * which it occurs, with frequency of occurrence in each document. Once the index is built,
- * the documents can searched on for keywords.
- *
- */
-public class LittleSearchEngine {
+	/**
+	 * Compiled form of the noiseWords hash table, used to check candidate keywords in place.
+	 * It is immutable, and may be shared with other engines.
+	 */
+	NoiseWordFilter noiseFilter;
 	
 	/**
-	 * This is a hash table of all keywords. The key is the actual keyword, and the associated value is
-	 * an array list of all occurrences of the keyword in documents. The array list is maintained in descending
-	 * order of occurrence frequencies.
+	 * Posting lists appended to out of order since bulkLoad was called, or null if the
+	 * index is not being bulk loaded.
 	 */
-	HashMap<String,ArrayList<Occurrence>> keywordsIndex;
+	ArrayList<PostingList> unsorted;
 	
 	/**
-	 * The hash table of all noise words - mapping is from word to itself.
+	 * Index segment this engine was loaded from, or null. Keywords that are not in the
+	 * keywordsIndex are looked up in the segment, and their posting lists are decoded from it.
 	 */
-	HashMap<String,String> noiseWords;
+	IndexSegment segment;
+	
+	/**
+	 * Handle of the segment in the cache its blocks are decoded through, after cacheBlocks has
+	 * been called, or null.
+	 */
+	private volatile BlockCache.Segment blockCache;
+	
+	/**
+	 * Compressed posting lists, by keyword, after compress has been called. A keyword is in
+	 * either the keywordsIndex or here, never both.
+	 */
+	HashMap<String,CompressedPostings> compressedIndex;
 	
 	/**
-	 * Creates the keyWordsIndex and noiseWords hash tables.
+	 * Handles to posting lists stored off the heap, by keyword, after moveOffHeap has been
+	 * called, and the arena that holds them. A keyword is in only one of the keywordsIndex,
+	 * the compressedIndex, or here.
+	 */
+	HashMap<String,OffHeapPostings> offHeapIndex;
+	OffHeapPostings.Arena offHeap;
+	
+	/**
+	 * Sorted, front-coded dictionary of keywords after compact has been called, and the postings
+	 * of each keyword by ordinal. The postings of a keyword that has since been moved back to
+	 * the keywordsIndex are null.
+	 */
+	TermDictionary dictionary;
+	Postings[] dictionaryPostings;
+	
+	/**
+	 * Set by concurrentIndex, before the engine is shared between threads. Documents are then
+	 * merged with copy-on-write, so the index can be searched while documents are being merged.
+	 */
+	boolean concurrent;
+	
+	/**
+	 * Positions of every keyword in every document, after recordPositions has been called, or null.
+	 */
+	PositionIndex positions;
+	
+	/**
+	 * BM25 scorer for the collection statistics as they were when it was made (see scorer).
+	 */
+	private volatile BM25 scorer;
+	
+	/**
+	 * Index generation, bumped after every change to the postings by mergeKeyWords or makeIndex,
+	 * so cached results can tell if they are still good.
+	 */
+	final AtomicLong generation = new AtomicLong();
+	
+	/**
+	 * Keywords of the keywordsIndex, offHeapIndex and compressedIndex in sorted order, for prefix
+	 * searches (see expand). A keyword is added when it is first put in the keywordsIndex, and
+	 * stays while it moves between the three; compact moves them all to the dictionary.
+	 */
+	private final ConcurrentSkipListSet<String> memoryTerms = new ConcurrentSkipListSet<String>();
+	
+	/**
+	 * Most keywords a prefix search expands to, unless it is given another limit.
+	 */
+	static final int MAX_EXPANSIONS = 128;
+	
+	/**
+	 * Cache of search results, after cacheResults has been called, or null.
+	 */
+	private volatile QueryCache cache;
+	
+	/**
+	 * Number of stripes of the result cache.
+	 */
+	static final int CACHE_STRIPES = 16;
+	
+	/**
+	 * Creates the keyWordsIndex and noiseWords hash tables, and the document table.
 	 */
 	public LittleSearchEngine() {
-		keywordsIndex = new HashMap<String,ArrayList<Occurrence>>(1000,2.0f);
+		keywordsIndex = new HashMap<String,PostingList>(1000,2.0f);
 		noiseWords = new HashMap<String,String>(100,2.0f);
+		documents = new DocumentTable();
 	}
 	
 	/**
 	 * This method indexes all keywords found in all the input documents. When this
 	 * method is done, the keywordsIndex hash table will be filled with all keywords,
-	 * each of which is associated with an array list of Occurrence objects, arranged
-	 * in decreasing frequencies of occurrence.
+	 * each of which is associated with a posting list of document ids and frequencies,
+	 * arranged in decreasing frequencies of occurrence.
+	 * 
+	 * The lists are bulk loaded and sealed, so postings with equal frequencies are in document id
+	 * order, which is also the order in which compressed lists break ties. A document merged
+	 * later is placed among the postings with its frequency by insertLastOccurrence, which keeps
+	 * the binary search rule of the original index rather than id order.
 	 * 
 	 * @param docsFile Name of file that has a list of all the document file names, one name per line
 	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
@@ -79,264 +150,1851 @@ public class LittleSearchEngine {
 	public void makeIndex(String docsFile, String noiseWordsFile) 
 	throws FileNotFoundException {
 		// load noise words to hash table
-		Scanner sc = new Scanner(new File(noiseWordsFile));
-		while (sc.hasNext()) {
-			String word = sc.next();
-			noiseWords.put(word,word);
-		}
+		loadNoiseWords(noiseWordsFile);
 		
 		// index all keywords
-		sc = new Scanner(new File(docsFile));
+		bulkLoad();
+		Scanner sc = new Scanner(new File(docsFile));
 		while (sc.hasNext()) {
 			String docFile = sc.next();
 			HashMap<String,Occurrence> kws = loadKeyWords(docFile);
 			mergeKeyWords(kws);
 		}
+		seal();
 		System.out.println(keywordsIndex);
 	}
-
 	
 	/**
-	 * Scans a document, and loads all keywords found into a hash table of keyword occurrences
-	 * in the document. Uses the getKeyWord method to separate keywords from other words.
+	 * Saves the index, the document table and the noise words to a segment file, from which
+	 * the engine can be loaded again without reindexing the documents.
 	 * 
-	 * @param docFile Name of the document file to be scanned and loaded
-	 * @return Hash table of keywords in the given document, each associated with an Occurrence object
-	 * @throws FileNotFoundException If the document file is not found on disk
+	 * @param indexFile Name of the segment file
+	 * @throws IOException If the segment file cannot be written
+	 * @throws IllegalStateException If the index is being bulk loaded
 	 */
-	public HashMap<String,Occurrence> loadKeyWords(String docFile) 
-	throws FileNotFoundException {
-		HashMap<String, Occurrence> table= new HashMap<String, Occurrence>(100, 2.0f); 
-		Scanner scan = new Scanner(new File(docFile));
-		
-		while(scan.hasNext()){
-			
-			String word = getKeyWord(scan.next());
-			
-			if(word != null){
-				
-				if(table.containsKey(word)== false){
-					Occurrence occur = new Occurrence(docFile, 1);
-					table.put(word, occur);
+	public void save(String indexFile) 
+	throws IOException {
+		if (unsorted != null) {
+			throw new IllegalStateException("Index is being bulk loaded");
+		}
+		// a keyword taken out of the segment is replaced by its current list
+		byte[] norms = documents.norms();
+		HashMap<String,CompressedPostings> all = new HashMap<String,CompressedPostings>(keywordsIndex.size()*2);
+		if (segment != null) {
+			for (int t = 0; t < segment.termCount(); t++) {
+				all.put(segment.term(t), segment.compressed(t));
+			}
+		}
+		if (dictionary != null) {
+			for (int t = 0; t < dictionary.size(); t++) {
+				Postings list = dictionaryPostings[t];
+				if (list != null) {
+					all.put(dictionary.term(t), list instanceof CompressedPostings ? (CompressedPostings)list
+							: CompressedPostings.encode(list.decode(), norms));
 				}
-				else{
-					if(table .get(word).document.equals(docFile)){
-						table .get(word).frequency++;
-					}
 			}
 		}
+		if (compressedIndex != null) {
+			all.putAll(compressedIndex);
+		}
+		if (offHeapIndex != null) {
+			for (Map.Entry<String,OffHeapPostings> e : offHeapIndex.entrySet()) {
+				all.put(e.getKey(), CompressedPostings.encode(e.getValue().decode(), norms));
+			}
+		}
+		for (Map.Entry<String,PostingList> e : keywordsIndex.entrySet()) {
+			all.put(e.getKey(), CompressedPostings.encode(e.getValue(), norms));
+		}
+		IndexSegment.write(indexFile, all, documents.names(), norms,
+				documents.totalLength(), noiseWords.keySet());
 	}
 	
-		return table ;
+	/**
+	 * Loads an engine from a segment file written by save. The file is memory-mapped, and
+	 * posting lists are only decoded from it when their keywords are looked up, so the engine
+	 * can be searched right away. New documents can be merged into it as usual.
+	 * 
+	 * @param indexFile Name of the segment file
+	 * @return Search engine for the saved index
+	 * @throws IOException If the segment file cannot be read
+	 */
+	public static LittleSearchEngine load(String indexFile) 
+	throws IOException {
+		IndexSegment segment = IndexSegment.open(indexFile);
+		LittleSearchEngine engine = new LittleSearchEngine();
+		for (String name : segment.documents) {
+			engine.documents.add(name);
+		}
+		engine.documents.setNorms(segment.norms, segment.totalLength);
+		for (String word : segment.noiseWords) {
+			engine.noiseWords.put(word,word);
 		}
+		engine.noiseFilter = new NoiseWordFilter(segment.noiseWords);
+		engine.segment = segment;
+		return engine;
+	}
 	
 	/**
-	 * Merges the keywords for a single document into the master keywordsIndex
-	 * hash table. For each keyword, its Occurrence in the current document
-	 * must be inserted in the correct place (according to descending order of
-	 * frequency) in the same keyword's Occurrence list in the master hash table. 
-	 * This is done by calling the insertLastOccurrence method.
+	 * Compresses all the posting lists in the keywordsIndex, moving them to the compressedIndex.
+	 * Searches run directly over the compressed lists. A keyword's list is decoded back into the
+	 * keywordsIndex if a document with that keyword is merged later.
 	 * 
-	 * @param kws Keywords hash table for a document
+	 * @throws IllegalStateException If the index is being bulk loaded
 	 */
-	public void mergeKeyWords(HashMap<String,Occurrence> kws) {
-		Iterator<String> it = kws.keySet().iterator();
-		while(it.hasNext()){
-			String key = it.next();
-			Occurrence occurence = kws.get(key);
-			
-			if(keywordsIndex.containsKey(key)){
-				keywordsIndex.get(key).add(occurence);
-				ArrayList<Occurrence> list = keywordsIndex.get(key);
-				insertLastOccurrence(list);
-				
-			}
-			else{
-			ArrayList<Occurrence> list = new ArrayList<Occurrence>();
-			list.add(occurence);
-			keywordsIndex.put(key, list);
-			}
-			
+	public void compress() {
+		if (unsorted != null) {
+			throw new IllegalStateException("Index is being bulk loaded");
+		}
+		if (compressedIndex == null) {
+			compressedIndex = new HashMap<String,CompressedPostings>(keywordsIndex.size()*2);
+		}
+		byte[] norms = documents.norms();
+		for (Map.Entry<String,PostingList> e : keywordsIndex.entrySet()) {
+			compressedIndex.put(e.getKey(), CompressedPostings.encode(e.getValue(), norms));
 		}
+		keywordsIndex.clear();
 	}
 	
 	/**
-	 * Given a word, returns it as a keyword if it passes the keyword test,
-	 * otherwise returns null. A keyword is any word that, after being stripped of any
-	 * TRAILING punctuation, consists only of alphabetic letters, and is not
-	 * a noise word. All words are treated in a case-INsensitive manner.
+	 * Moves all the posting lists in the keywordsIndex off the heap, leaving only small handles
+	 * to them in the offHeapIndex. Searches read the postings where they are. A keyword's list
+	 * is copied back into the keywordsIndex if a document with that keyword is merged later; the
+	 * off-heap copy is then left unused until the engine is discarded.
 	 * 
-	 * Punctuation characters are the following: '.', ',', '?', ':', ';' and '!'
+	 * @throws IllegalStateException If the index is being bulk loaded
+	 */
+	public void moveOffHeap() {
+		if (unsorted != null) {
+			throw new IllegalStateException("Index is being bulk loaded");
+		}
+		if (offHeap == null) {
+			offHeap = new OffHeapPostings.Arena();
+			offHeapIndex = new HashMap<String,OffHeapPostings>(keywordsIndex.size()*2);
+		}
+		byte[] norms = documents.norms();
+		for (Map.Entry<String,PostingList> e : keywordsIndex.entrySet()) {
+			offHeapIndex.put(e.getKey(), offHeap.copy(e.getValue(), norms));
+		}
+		keywordsIndex.clear();
+	}
+	
+	/**
+	 * Seals the in-memory index for read-mostly use: every keyword in the keywordsIndex, the
+	 * offHeapIndex and the compressedIndex is moved into a sorted, front-coded TermDictionary,
+	 * and its postings (in whatever form they were) into an array indexed by the keyword's
+	 * ordinal. This drops the hash table entries and keyword Strings. Keywords in the segment
+	 * the engine was loaded from stay there.
 	 * 
-	 * @param word Candidate word
-	 * @return Keyword (word without trailing punctuation, LOWER CASE)
+	 * @throws IllegalStateException If the index is being bulk loaded
 	 */
-	public String getKeyWord(String word) {
+	public void compact() {
+		if (unsorted != null) {
+			throw new IllegalStateException("Index is being bulk loaded");
+		}
+		HashMap<String,Postings> all = new HashMap<String,Postings>(keywordsIndex.size()*2);
+		if (dictionary != null) {
+			for (int t = 0; t < dictionary.size(); t++) {
+				if (dictionaryPostings[t] != null) {
+					all.put(dictionary.term(t), dictionaryPostings[t]);
+				}
+			}
+		}
+		if (compressedIndex != null) {
+			all.putAll(compressedIndex);
+			compressedIndex = null;
+		}
+		if (offHeapIndex != null) {
+			all.putAll(offHeapIndex);
+			offHeapIndex = null;
+		}
+		all.putAll(keywordsIndex);
+		keywordsIndex.clear();
+		memoryTerms.clear();
 		
-		String nWord = punctuation(word);
-		if(nWord == null)
-		return null;
-		else{
-			if(noiseWords.containsValue(nWord) == true)
-				return null;
-			return nWord;
+		dictionary = TermDictionary.of(all.keySet());
+		dictionaryPostings = new Postings[dictionary.size()];
+		for (int t = 0; t < dictionaryPostings.length; t++) {
+			dictionaryPostings[t] = all.get(dictionary.term(t));
 		}
 	}
 	
-	private String punctuation(String word){
-		String nWord = word.toLowerCase();
-		for(int i = nWord.length()-1; i > 0; i--){
-			if(nWord.charAt(i) < 'a' || nWord.charAt(i) > 'z'){
-				nWord = nWord.substring(0, nWord.length()-1);
+	/**
+	 * Returns the postings of the given keyword, wherever they are kept: the keywordsIndex, the
+	 * offHeapIndex, the compressedIndex, the dictionary, or the segment the engine was loaded from.
+	 * 
+	 * @param keyword Keyword
+	 * @return Postings, or null if the keyword is not in the index
+	 */
+	Postings lookup(String keyword) {
+		Postings list = keywordsIndex.get(keyword);
+		if (list == null && offHeapIndex != null) {
+			list = offHeapIndex.get(keyword);
+		}
+		if (list == null && dictionary != null) {
+			int t = dictionary.find(keyword);
+			if (t >= 0) {
+				list = dictionaryPostings[t];
 			}
-			else
-				break;
-		}	
-		int j = 0;
-		while(j != nWord.length()){
-			if(nWord.charAt(j) < 'a' || nWord.charAt(j) > 'z'){
-				return null;
+		}
+		if (list == null && compressedIndex != null) {
+			list = compressedIndex.get(keyword);
+		}
+		if (list == null && segment != null) {
+			BlockCache.Segment blocks = blockCache;
+			list = blocks == null ? segment.compressed(keyword) : segment.cached(keyword, blocks);
+		}
+		return list;
+	}
+	
+	/**
+	 * Returns the posting list of the given keyword, in descending order of frequencies. A list
+	 * that is not in the keywordsIndex is decoded for the call, and must not be changed.
+	 * 
+	 * @param keyword Keyword
+	 * @return Posting list, or null if the keyword is not in the index
+	 */
+	PostingList postings(String keyword) {
+		Postings list = lookup(keyword);
+		return list == null ? null : list.decode();
+	}
+	
+	/**
+	 * Puts a keyword's posting list in the keywordsIndex, and drops the keyword's old postings
+	 * from the offHeapIndex, the compressedIndex and the dictionary, so no store is left with a
+	 * list that no longer holds all of the keyword's documents. The segment the engine was loaded
+	 * from can not be changed, but lookup finds the keywordsIndex first.
+	 * 
+	 * @param keyword Keyword
+	 * @param list Posting list with all of the keyword's documents
+	 */
+	private void putPostings(String keyword, PostingList list) {
+		keywordsIndex.put(keyword, list);
+		memoryTerms.add(keyword);
+		if (compressedIndex != null) {
+			compressedIndex.remove(keyword);
+		}
+		if (offHeapIndex != null) {
+			offHeapIndex.remove(keyword);
+		}
+		if (dictionary != null) {
+			int t = dictionary.find(keyword);
+			if (t >= 0) {
+				dictionaryPostings[t] = null;
 			}
-			j++;
 		}
-		
-		return nWord;
 	}
 	
 	/**
-	 * Inserts the last occurrence in the parameter list in the correct position in the
-	 * same list, based on ordering occurrences on descending frequencies. The elements
-	 * 0..n-2 in the list are already in the correct order. Insertion of the last element
-	 * (the one at index n-1) is done by first finding the correct spot using binary search, 
-	 * then inserting at that spot.
+	 * Starts decoding the blocks of the posting lists in the segment this engine was loaded from
+	 * through the given cache, which may be shared with other engines. Lists are then read in
+	 * place from the mapped file, and each block a search stops in is copied out of the cache
+	 * rather than decoded again, if it is there. The segment is registered with the cache under
+	 * the name of its file, and its hits and misses are counted there; an engine that opens the
+	 * same file again shares its blocks. The segment is unregistered from the cache it was in
+	 * before, so a null cache stops caching and lets the cache drop the segment's blocks, which
+	 * an engine should do before it is discarded.
 	 * 
-	 * @param occs List of Occurrences
-	 * @return Sequence of mid point indexes in the input list checked by the binary search process,
-	 *         null if the size of the input list is 1. This returned array list is only used to test
-	 *         your code - it is not used elsewhere in the program.
+	 * @param cache Block cache, or null
+	 * @throws IllegalStateException If the engine was not loaded from a segment
 	 */
-	public ArrayList<Integer> insertLastOccurrence(ArrayList<Occurrence> occs) {
-		//Binary Search
-		ArrayList<Integer> midl = new ArrayList<Integer>();
-		Occurrence occur = occs.get(occs.size()-1);
-		int item = occur.frequency;
-		int mid=0;
-		int lo = 0, hi = occs.size()-2;
-		while(lo <= hi){
-		mid = (lo + hi)/2;
-		midl.add(mid);
-		if(occs.get(mid).frequency == item){
-			occs.remove(occur);
-			occs.add(mid+1, occur);
-			return midl;
-			}
-		else if(occs.get(mid).frequency < item){
-			hi = mid - 1;
-			
+	public void cacheBlocks(BlockCache cache) {
+		if (segment == null) {
+			throw new IllegalStateException("Engine was not loaded from a segment");
 		}
-		else if(occs.get(mid).frequency > item){
-			lo = mid + 1;
+		BlockCache.Segment old = blockCache;
+		blockCache = cache == null ? null : cache.register(segment.name, segment.version);
+		if (old != null) {
+			old.cache.unregister(old);
 		}
+	}
+	
+	/**
+	 * Returns the handle of the segment in its block cache, with its hit and miss counts, or null
+	 * if blocks are not cached.
+	 */
+	public BlockCache.Segment blockCache() {
+		return blockCache;
+	}
+	
+	/**
+	 * Starts caching the results of topK (and so top5search), topKAnd, topKBM25 and topKPrefix,
+	 * up to the given estimated size, replacing any results cached so far. Results are cached by
+	 * the method, k and normalized keywords of the search (see query), with the index generation
+	 * they were computed from, and are only served while the generation is the same: the
+	 * generation is read before a search and bumped after every change to the postings or to the
+	 * document lengths, so a result that may have seen part of a change is never served.
+	 * Searches that count their work in a SearchStats always run, and so do topK searches over
+	 * lists that are all in frequency order, which only read the first few postings of each list
+	 * and take less time than a cache lookup. A size of 0 or less turns caching off.
+	 * 
+	 * @param maxBytes Estimated size the cached results may take up, in bytes
+	 */
+	public void cacheResults(long maxBytes) {
+		cache = maxBytes > 0 ? new QueryCache(maxBytes, CACHE_STRIPES) : null;
+	}
+	
+	/**
+	 * Returns the result cache, with its hit and miss counts, or null if results are not cached.
+	 */
+	public QueryCache cache() {
+		return cache;
+	}
+	
+	/**
+	 * Returns the cache key of a search: the kind of search, k and the keywords.
+	 * 
+	 * @param kind Kind of search: 'o' for topK, 'a' for topKAnd, 'b' for topKBM25, 'p' for
+	 *        topKPrefix
+	 * @param k Maximum number of documents in the result
+	 * @param keywords Keywords as searched for (see normalize), in an order that gives the same
+	 *        result as the search's
+	 * @return Key
+	 */
+	static String query(char kind, int k, String... keywords) {
+		StringBuilder query = new StringBuilder(16 + 8*keywords.length);
+		query.append(kind).append(k);
+		for (String kw : keywords) {
+			query.append(' ').append(kw);
 		}
-		occs.remove(occur);
-		occs.add(hi+1, occur);
-		
-		return midl;
+		return query.toString();
 	}
 	
 	/**
-	 * Search result for "kw1 or kw2". A document is in the result set if kw1 or kw2 occurs in that
-	 * document. Result set is arranged in descending order of occurrence frequencies. (Note that a
-	 * matching document will only appear once in the result.) Ties in frequency values are broken
-	 * in favor of the first keyword. (That is, if kw1 is in doc1 with frequency f1, and kw2 is in doc2
-	 * also with the same frequency f1, then doc1 will appear before doc2 in the result. 
-	 * The result set is limited to 5 entries. If there are no matching documents, the result is null.
+	 * Returns the keywords of a search as they are looked up: each word that passes the letter
+	 * test of getKeyWord is stripped of trailing punctuation and lower cased, so "Cat" and "cat."
+	 * search for "cat". Other words are left as they are, and are not found. Noise words are not
+	 * dropped, since they are not in the index either.
 	 * 
-	 * @param kw1 First keyword
-	 * @param kw1 Second keyword
-	 * @return List of NAMES of documents in which either kw1 or kw2 occurs, arranged in descending order of
-	 *         frequencies. The result size is limited to 5 documents. If there are no matching documents,
-	 *         the result is null.
+	 * @param keywords Keywords as given to the search
+	 * @return Normalized keywords, which are the given array if no keyword changed
 	 */
-	public ArrayList<String> top5search(String kw1, String kw2) {
-		
-		Iterator<String> it = keywordsIndex.keySet().iterator();
-		ArrayList<Occurrence> l1 = new ArrayList<Occurrence>();
-		ArrayList<Occurrence> l2 = new ArrayList<Occurrence>();
-		int count = 0;
-		while(count != 2){
-			String n = it.next();
-			if(n.equals(kw1)){
-				l1 = keywordsIndex.get(n);
-				count++;
-			}
-			if(n.equals(kw2)){
-				l2 = keywordsIndex.get(n);
-				count++;
+	static String[] normalize(String[] keywords) {
+		String[] normalized = keywords;
+		for (int i = 0; i < keywords.length; i++) {
+			int len = KeywordNormalizer.letters(keywords[i]);
+			String kw = len == 0 ? keywords[i] : KeywordNormalizer.keyword(keywords[i], len);
+			if (kw != keywords[i]) {
+				if (normalized == keywords) {
+					normalized = keywords.clone();
+				}
+				normalized[i] = kw;
 			}
 		}
-		
-		
-		ArrayList<String> fin= new ArrayList<String>();
-		int i = 0, j = 0;
-		while(i < l1.size() && j < l2.size()){
-			
-				if(fin.size() == 5)
-					break;
-				if(l1.get(i).frequency < l2.get(j).frequency){
-					if(!fin.contains(l2.get(j).document))
-						fin.add(l2.get(j).document);
-					j++;
-					
-				}
-				else if(l1.get(i).frequency > l2.get(j).frequency){
-					if(!fin.contains(l1.get(i).document))
-						fin.add(l1.get(i).document);
-					i++;
-				}
-				else{
-					if(l1.get(i).document.equals(l2.get(j).document) && !fin.contains(l1.get(i).document)){
-						fin.add(l1.get(i).document);
-						i++;
-						j++;
-					}
-					else if(!fin.contains(l1.get(i).document)){
-						fin.add(l1.get(i).document);
-						i++;
-					}
-					else if(!fin.contains(l2.get(j).document)){
-						fin.add(l2.get(j).document);
-						j++;
-						i++;
-					}
-					else{
-						i++;
-						j++;
-					}
-				}
+		return normalized;
+	}
+	
+	/**
+	 * Starts recording the position of every keyword occurrence in the documents that are loaded
+	 * from now on, for phraseSearch. Positions are recorded by loadKeyWords and kept by
+	 * mergeKeyWords, so only documents indexed with the serial makeIndex (or loadKeyWords and
+	 * mergeKeyWords) have them, and documents must be merged in id order. Positions are only
+	 * kept in memory; they are not saved in segment files.
+	 * 
+	 * @throws IllegalStateException If the index is in concurrent mode
+	 */
+	public void recordPositions() {
+		if (concurrent) {
+			throw new IllegalStateException("Index is in concurrent mode");
+		}
+		if (positions == null) {
+			positions = new PositionIndex();
+		}
+	}
+	
+	/**
+	 * Switches the index to concurrent mode, in which any number of threads can merge documents
+	 * and search at the same time, without locking. The keywordsIndex becomes a ConcurrentHashMap,
+	 * and mergeKeyWords never changes a posting list that is in it: it copies the list, inserts the
+	 * new occurrence into the copy, and swaps the copy in with a compare-and-set, retrying if another
+	 * thread updated the same keyword first. A search sees every list either before or after a merge
+	 * of a document, never half sorted. It may see a document in one keyword's list before it has
+	 * been merged into another keyword's list.
+	 * 
+	 * Every merge copies a whole list, so this is for serving searches while documents trickle in,
+	 * not for building a large index (use makeIndex first). Lists that move from the compressed,
+	 * off-heap or dictionary stores into the keywordsIndex are not removed from them, since those
+	 * stores are not safe to change while they are read; the keywordsIndex is always looked at first.
+	 * save can be called at any time, but bulkLoad, compress, moveOffHeap and compact must not be
+	 * called while other threads are using the engine. Positions can not be recorded in this mode.
+	 * 
+	 * @throws IllegalStateException If the index is being bulk loaded, or positions are recorded
+	 */
+	public void concurrentIndex() {
+		if (unsorted != null) {
+			throw new IllegalStateException("Index is being bulk loaded");
 		}
-	// loop done
+		if (positions != null) {
+			throw new IllegalStateException("Positions are being recorded");
+		}
+		if (!concurrent) {
+			keywordsIndex = new ConcurrentHashMap<String,PostingList>(keywordsIndex);
+			concurrent = true;
+		}
+	}
+	
+	/**
+	 * Starts a bulk load. Until seal is called, mergeKeyWords appends each occurrence to the end
+	 * of its keyword's posting list instead of inserting it in frequency order, and the index
+	 * must not be searched.
+	 * 
+	 * @throws IllegalStateException If the index is in concurrent mode
+	 */
+	public void bulkLoad() {
+		if (concurrent) {
+			throw new IllegalStateException("Index is in concurrent mode");
+		}
+		if (unsorted == null) {
+			unsorted = new ArrayList<PostingList>();
+		}
+	}
+	
+	/**
+	 * Ends a bulk load by sorting every posting list that was appended to in descending order
+	 * of frequencies. The sort is stable, so postings with equal frequencies are in the order in
+	 * which their documents were merged (which insertLastOccurrence does not keep). The impacts
+	 * of each list (see BlockImpacts) are worked out first, while it is still in merge order,
+	 * which is document id order unless documents were merged out of order.
+	 */
+	public void seal() {
+		if (unsorted == null) {
+			return;
+		}
+		byte[] norms = documents.norms();
+		for (PostingList list : unsorted) {
+			list.impacts(norms);
+			list.sortByFrequency();
+		}
+		unsorted = null;
+		generation.incrementAndGet();
+	}
+	
+	/**
+	 * Parallel version of makeIndex. Documents are tokenized concurrently on a ForkJoinPool
+	 * with the given number of worker threads, and the per-document keyword tables are combined
+	 * pairwise in a reduction tree. Each keyword's occurrences are kept in document order through
+	 * the reduction, and are then put in descending frequency order (a chunk of keywords per task)
+	 * with a stable sort, so the resulting index is exactly the same as the one built by the serial
+	 * makeIndex, including the order of occurrences with equal frequencies.
+	 * Unlike the serial version, the index is not printed when done.
+	 * 
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param threads Number of worker threads to use
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 */
+	public void makeIndex(String docsFile, String noiseWordsFile, int threads) 
+	throws FileNotFoundException {
+		loadNoiseWords(noiseWordsFile);
 		
-	if(fin.size() < 5){
-		if(i < l1.size()){
-			while(i < l1.size() && fin.size() < 5){
-				if(!fin.contains(l1.get(i).document)){
-					fin.add(l1.get(i).document);
-				}
-				i++;
-			}
+		ArrayList<String> docs = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(docsFile));
+		while (sc.hasNext()) {
+			String doc = sc.next();
+			docs.add(doc);
+			// ids are given out in document order, as with the serial build
+			documents.add(doc);
 		}
-		if(j < l2.size() && fin.size() < 5){
-			while(j < l2.size()){
-				if(!fin.contains(l2.get(j).document)){
-					fin.add(l2.get(j).document);
-				}
-				j++;
+		if (docs.isEmpty()) {
+			return;
+		}
+		
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			HashMap<String,PostingList> merged = pool.invoke(new LoadTask(docs, 0, docs.size()));
+			ArrayList<Map.Entry<String,PostingList>> terms = 
+				new ArrayList<Map.Entry<String,PostingList>>(merged.entrySet());
+			pool.invoke(new SortTask(terms, 0, terms.size()));
+			for (Map.Entry<String,PostingList> e : terms) {
+				putPostings(e.getKey(), e.getValue());
 			}
+			generation.incrementAndGet();
+		} catch (UncheckedIOException e) {
+			throw (FileNotFoundException)e.getCause();
+		} finally {
+			pool.shutdown();
 		}
 	}
-		
 	
-	return fin;
+	/**
+	 * Version of the parallel makeIndex in which each of the given number of worker threads
+	 * builds a private PartialIndex, so merging a document's keywords involves no shared state
+	 * at all. The workers take documents in listing order from a shared counter, append to their
+	 * own posting lists in document id order, and sort each list by frequency when they run out
+	 * of documents. The partial indexes are then combined by a merge of each keyword's lists,
+	 * with the keywords split between the same number of threads by hash code. The resulting
+	 * index is the same as the one built by the serial makeIndex, as long as no document is
+	 * listed twice; a document listed twice is only indexed once here.
+	 * 
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param threads Number of worker threads to use
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 */
+	public void makeIndexFromPartials(String docsFile, String noiseWordsFile, int threads) 
+	throws FileNotFoundException {
+		mergePartialIndexes(partialIndexes(docsFile, noiseWordsFile, threads));
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Indexes the documents into one sealed PartialIndex per worker thread, without changing the
+	 * keywordsIndex. Each partial index can be merged into the engine with mergePartialIndexes,
+	 * or saved as a segment of its own.
+	 * 
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param threads Number of worker threads to use
+	 * @return Partial index of each worker
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 */
+	PartialIndex[] partialIndexes(String docsFile, String noiseWordsFile, int threads) 
+	throws FileNotFoundException {
+		loadNoiseWords(noiseWordsFile);
+		
+		final ArrayList<String> docs = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(docsFile));
+		while (sc.hasNext()) {
+			String doc = sc.next();
+			// ids are given out in document order, as with the serial build
+			if (documents.id(doc) < 0) {
+				documents.add(doc);
+				docs.add(doc);
+			}
+		}
+		
+		final PartialIndex[] parts = new PartialIndex[threads];
+		final AtomicInteger next = new AtomicInteger();
+		Runnable[] workers = new Runnable[threads];
+		for (int w = 0; w < threads; w++) {
+			final PartialIndex part = parts[w] = new PartialIndex();
+			workers[w] = new Runnable() {
+				public void run() {
+					int i;
+					while ((i = next.getAndIncrement()) < docs.size()) {
+						String doc = docs.get(i);
+						try {
+							DocumentKeywords kws = loadKeyWords(doc);
+							part.add(register(kws), kws);
+						} catch (FileNotFoundException e) {
+							throw new UncheckedIOException(e);
+						}
+					}
+					part.seal();
+				}
+			};
+		}
+		runAll(workers);
+		return parts;
+	}
+	
+	/**
+	 * Merges sealed partial indexes into the keywordsIndex. For each keyword, its lists in the
+	 * partial indexes (and its current list in the engine, if it has one) are merged into one
+	 * list in descending order of frequencies, with ties in document id order. The keywords are
+	 * split between one thread per partial index by hash code, and each thread merges its own
+	 * keywords into a table of its own.
+	 * 
+	 * The impacts of each merged list (see BlockImpacts) are worked out as it is merged.
+	 * 
+	 * @param parts Sealed partial indexes, with documents from this engine's DocumentTable
+	 * @throws IllegalStateException If the index is being bulk loaded
+	 */
+	void mergePartialIndexes(final PartialIndex[] parts) {
+		if (unsorted != null) {
+			throw new IllegalStateException("Index is being bulk loaded");
+		}
+		final int threads = parts.length;
+		final ArrayList<HashMap<String,PostingList>> merged = new ArrayList<HashMap<String,PostingList>>();
+		final byte[] norms = documents.norms();
+		Runnable[] workers = new Runnable[threads];
+		for (int w = 0; w < threads; w++) {
+			final HashMap<String,PostingList> out = new HashMap<String,PostingList>(1000, 2.0f);
+			merged.add(out);
+			final int owner = w;
+			workers[w] = new Runnable() {
+				public void run() {
+					PostingList[] lists = new PostingList[threads + 1];
+					for (PartialIndex part : parts) {
+						for (String kw : part.index.keySet()) {
+							if ((kw.hashCode() & 0x7fffffff) % threads != owner || out.containsKey(kw)) {
+								continue;
+							}
+							int n = 0;
+							PostingList existing = postings(kw);
+							if (existing != null) {
+								lists[n++] = existing;
+							}
+							for (PartialIndex p : parts) {
+								PostingList list = p.postings(kw);
+								if (list != null) {
+									lists[n++] = list;
+								}
+							}
+							PostingList list = PartialIndex.merge(lists, n);
+							list.impacts(norms);
+							out.put(kw, list);
+						}
+					}
+				}
+			};
+		}
+		try {
+			runAll(workers);
+		} catch (FileNotFoundException e) {
+			throw new UncheckedIOException(e);
+		}
+		for (HashMap<String,PostingList> out : merged) {
+			for (Map.Entry<String,PostingList> e : out.entrySet()) {
+				putPostings(e.getKey(), e.getValue());
+			}
+		}
+		generation.incrementAndGet();
+	}
+	
+	/**
+	 * Runs each worker on a thread of its own, and waits for all of them to finish. An exception
+	 * thrown by a worker is thrown again here (a FileNotFoundException that was wrapped in an
+	 * UncheckedIOException is unwrapped).
+	 */
+	private static void runAll(Runnable[] workers) 
+	throws FileNotFoundException {
+		final Throwable[] failed = new Throwable[1];
+		Thread[] threads = new Thread[workers.length];
+		for (int w = 0; w < workers.length; w++) {
+			threads[w] = new Thread(workers[w]);
+			threads[w].setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+				public void uncaughtException(Thread t, Throwable e) {
+					synchronized (failed) {
+						if (failed[0] == null) {
+							failed[0] = e;
+						}
+					}
+				}
+			});
+			threads[w].start();
+		}
+		boolean interrupted = false;
+		for (Thread t : threads) {
+			while (true) {
+				try {
+					t.join();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		Throwable e = failed[0];
+		if (e instanceof UncheckedIOException && e.getCause() instanceof FileNotFoundException) {
+			throw (FileNotFoundException)e.getCause();
+		}
+		if (e instanceof RuntimeException) {
+			throw (RuntimeException)e;
+		}
+		if (e instanceof Error) {
+			throw (Error)e;
+		}
+	}
+	
+	/**
+	 * Loads the noise words file into the noiseWords hash table. The file is compiled into a
+	 * NoiseWordFilter, which is shared with every other engine that loads the same file.
+	 * 
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @throws FileNotFoundException If the noise words file is not found on disk
+	 */
+	void loadNoiseWords(String noiseWordsFile) 
+	throws FileNotFoundException {
+		NoiseWordFilter filter = NoiseWordFilter.compile(noiseWordsFile);
+		for (String word : filter.words()) {
+			noiseWords.put(word,word);
+		}
+		noiseFilter = filter;
+	}
+	
+	/**
+	 * Returns the compiled noise words, compiling them again if the noiseWords hash table
+	 * has been filled in some other way than by loadNoiseWords.
+	 */
+	NoiseWordFilter noiseFilter() {
+		NoiseWordFilter filter = noiseFilter;
+		if (filter == null || filter.size() != noiseWords.size()) {
+			filter = new NoiseWordFilter(noiseWords.keySet());
+			noiseFilter = filter;
+		}
+		return filter;
+	}
+	
+	/**
+	 * Loads the keywords of the documents in docs[lo..hi-1], and returns them as a partial index
+	 * in which every keyword's occurrences are in document order (NOT frequency order).
+	 */
+	private class LoadTask extends RecursiveTask<HashMap<String,PostingList>> {
+		private static final long serialVersionUID = 1L;
+		
+		final ArrayList<String> docs;
+		final int lo, hi;
+		
+		LoadTask(ArrayList<String> docs, int lo, int hi) {
+			this.docs = docs;
+			this.lo = lo;
+			this.hi = hi;
+		}
+		
+		protected HashMap<String,PostingList> compute() {
+			if (hi - lo == 1) {
+				DocumentKeywords kws;
+				try {
+					kws = loadKeyWords(docs.get(lo));
+				} catch (FileNotFoundException e) {
+					throw new UncheckedIOException(e);
+				}
+				register(kws);
+				HashMap<String,PostingList> part = new HashMap<String,PostingList>(kws.size()*2);
+				for (Map.Entry<String,Occurrence> e : kws.entrySet()) {
+					PostingList list = new PostingList(1);
+					list.add(e.getValue().document, e.getValue().frequency);
+					part.put(e.getKey(), list);
+				}
+				return part;
+			}
+			int mid = (lo + hi)/2;
+			LoadTask left = new LoadTask(docs, lo, mid);
+			left.fork();
+			HashMap<String,PostingList> r = new LoadTask(docs, mid, hi).compute();
+			HashMap<String,PostingList> l = left.join();
+			
+			// left documents come before right documents, and the larger table absorbs the smaller
+			if (l.size() >= r.size()) {
+				for (Map.Entry<String,PostingList> e : r.entrySet()) {
+					PostingList list = l.get(e.getKey());
+					if (list == null) {
+						l.put(e.getKey(), e.getValue());
+					} else {
+						list.addAll(e.getValue());
+					}
+				}
+				return l;
+			}
+			for (Map.Entry<String,PostingList> e : l.entrySet()) {
+				PostingList list = r.get(e.getKey());
+				if (list != null) {
+					e.getValue().addAll(list);
+				}
+				r.put(e.getKey(), e.getValue());
+			}
+			return r;
+		}
+	}
+	
+	/**
+	 * Puts the document-ordered occurrence lists of terms[lo..hi-1] in descending frequency order,
+	 * appending them to whatever is already in the keywordsIndex for the same keyword. The stable
+	 * sort gives the same order that a bulk load (see seal) would have, and the impacts of each
+	 * list are worked out before it, as seal does.
+	 */
+	private class SortTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		static final int CHUNK = 256;
+		
+		final ArrayList<Map.Entry<String,PostingList>> terms;
+		final int lo, hi;
+		
+		SortTask(ArrayList<Map.Entry<String,PostingList>> terms, int lo, int hi) {
+			this.terms = terms;
+			this.lo = lo;
+			this.hi = hi;
+		}
+		
+		protected void compute() {
+			if (hi - lo > CHUNK) {
+				int mid = (lo + hi)/2;
+				invokeAll(new SortTask(terms, lo, mid), new SortTask(terms, mid, hi));
+				return;
+			}
+			byte[] norms = documents.norms();
+			for (int t = lo; t < hi; t++) {
+				Map.Entry<String,PostingList> e = terms.get(t);
+				PostingList existing = postings(e.getKey());
+				PostingList docOrder = e.getValue();
+				PostingList list = existing == null ? docOrder : new PostingList(existing, docOrder.size());
+				if (existing != null) {
+					list.addAll(docOrder);
+				}
+				list.impacts(norms);
+				list.sortByFrequency();
+				e.setValue(list);
+			}
+		}
+	}
+
+	
+	/**
+	 * Scans a document, and loads all keywords found into a hash table of keyword occurrences
+	 * in the document. The document is read with a MappedTokenizer, which applies the same letter
+	 * and punctuation rules as getKeyWord, and candidates are checked against the noise words in
+	 * the tokenizer's buffer, so only actual keywords are turned into Strings. The number of
+	 * keywords in the document is kept with the table as its length, for BM25. Loading does not
+	 * change the index or the document table: the document is registered when its keywords are
+	 * merged.
+	 * 
+	 * @param docFile Name of the document file to be scanned and loaded
+	 * @return Hash table of keywords in the given document, each associated with an Occurrence object
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	public DocumentKeywords loadKeyWords(String docFile) 
+	throws FileNotFoundException {
+		int doc = documents.id(docFile);
+		DocumentKeywords table = new DocumentKeywords(docFile, doc);
+		boolean positional = positions != null;
+		NoiseWordFilter filter = noiseFilter();
+		MappedTokenizer tok = new MappedTokenizer(docFile);
+		int length = 0;
+		try {
+			int len;
+			while((len = tok.next()) > 0){
+				
+				if(filter.contains(tok.buf, len))
+					continue;
+				
+				length++;
+				String word = new String(tok.buf, 0, len, StandardCharsets.US_ASCII);
+				Occurrence occur = table.get(word);
+				if(occur == null){
+					occur = new Occurrence(doc, 1);
+					table.put(word, occur);
+				}
+				else{
+					occur.frequency++;
+				}
+				if(positional)
+					occur.addPosition(tok.position);
+			}
+		} finally {
+			tok.close();
+		}
+		table.length = length;
+		return table;
+	}
+	
+	/**
+	 * Registers the document of a loaded keywords table: gives the document an id if it does not
+	 * have one yet, sets the id in its occurrences, and records its length in the document table.
+	 * The length changes the collection statistics of BM25, so the index generation is bumped.
+	 * 
+	 * @param kws Keywords of a document, as returned by loadKeyWords
+	 * @return Document id
+	 */
+	int register(DocumentKeywords kws) {
+		int doc = documents.add(kws.name);
+		if (kws.document != doc) {
+			for (Occurrence occurence : kws.values()) {
+				occurence.document = doc;
+			}
+			kws.document = doc;
+		}
+		documents.setLength(doc, kws.length);
+		generation.incrementAndGet();
+		return doc;
+	}
+	
+	/**
+	 * Merges the keywords for a single document into the master keywordsIndex
+	 * hash table. For each keyword, its Occurrence in the current document
+	 * must be inserted in the correct place (according to descending order of
+	 * frequency) in the same keyword's posting list in the master hash table. 
+	 * This is done by calling the insertLastOccurrence method, except during a bulk load,
+	 * when the occurrence is appended and the list is sorted by seal. In concurrent mode, the
+	 * occurrence is inserted into a copy of the list (see concurrentIndex). Positions recorded
+	 * by loadKeyWords are added to the position index. A table returned by loadKeyWords has its
+	 * document registered first (see register). The impacts of the lists (see BlockImpacts) that
+	 * have them are kept up to date. The index generation is bumped when the
+	 * document is merged, which makes any cached results stale (see cacheResults).
+	 * 
+	 * @param kws Keywords hash table for a document
+	 */
+	public void mergeKeyWords(HashMap<String,Occurrence> kws) {
+		if (kws instanceof DocumentKeywords) {
+			register((DocumentKeywords)kws);
+		}
+		byte[] norms = documents.norms();
+		if (concurrent) {
+			for (Map.Entry<String,Occurrence> e : kws.entrySet()) {
+				mergeConcurrent(e.getKey(), e.getValue(), norms);
+			}
+			generation.incrementAndGet();
+			return;
+		}
+		for (Map.Entry<String,Occurrence> e : kws.entrySet()) {
+			Occurrence occurence = e.getValue();
+			if (positions != null && occurence.positions != null) {
+				positions.add(e.getKey(), occurence.document, occurence.positions, occurence.frequency);
+			}
+			PostingList list = keywordsIndex.get(e.getKey());
+			if(list == null){
+				// the keyword's list moves from compressed or off-heap postings to the keywordsIndex
+				list = postings(e.getKey());
+				if(list != null)
+					putPostings(e.getKey(), list);
+			}
+			
+			if(list != null){
+				list.add(occurence.document, occurence.frequency, norms);
+				if(unsorted != null){
+					if(!list.unsorted){
+						list.unsorted = true;
+						unsorted.add(list);
+					}
+				}
+				else{
+					insertLastOccurrence(list);
+				}
+			}
+			else{
+				list = new PostingList();
+				list.add(occurence.document, occurence.frequency);
+				list.impacts(norms);
+				keywordsIndex.put(e.getKey(), list);
+				memoryTerms.add(e.getKey());
+			}
+		}
+		generation.incrementAndGet();
+	}
+	
+	/**
+	 * Merges one occurrence in concurrent mode: the keyword's current list (from wherever it is
+	 * kept) is copied with the occurrence inserted, and the copy replaces the list in the
+	 * keywordsIndex only if no other thread has replaced it in the meantime.
+	 */
+	private void mergeConcurrent(String keyword, Occurrence occurence, byte[] norms) {
+		while (true) {
+			PostingList old = keywordsIndex.get(keyword);
+			PostingList base = old != null ? old : postings(keyword);
+			PostingList list;
+			if (base == null) {
+				list = new PostingList(1);
+				list.add(occurence.document, occurence.frequency);
+				list.impacts(norms);
+			} else {
+				list = new PostingList(base, 1);
+				list.add(occurence.document, occurence.frequency, norms);
+				list.insertLast(null);
+			}
+			if (old == null ? keywordsIndex.putIfAbsent(keyword, list) == null 
+					: keywordsIndex.replace(keyword, old, list)) {
+				if (old == null) {
+					memoryTerms.add(keyword);
+				}
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Given a word, returns it as a keyword if it passes the keyword test,
+	 * otherwise returns null. A keyword is any word that, after being stripped of any
+	 * TRAILING punctuation, consists only of alphabetic letters, and is not
+	 * a noise word. All words are treated in a case-INsensitive manner.
+	 * 
+	 * Punctuation characters are the following: '.', ',', '?', ':', ';' and '!'
+	 * 
+	 * @param word Candidate word
+	 * @return Keyword (word without trailing punctuation, LOWER CASE)
+	 */
+	public String getKeyWord(String word) {
+		int len = KeywordNormalizer.letters(word);
+		if(len == 0 || noiseFilter().contains(word, len))
+			return null;
+		return KeywordNormalizer.keyword(word, len);
+	}
+	
+	/**
+	 * Inserts the last posting in the parameter list in the correct position in the
+	 * same list, based on ordering postings on descending frequencies. The postings
+	 * 0..n-2 in the list are already in the correct order. Insertion of the last posting
+	 * (the one at index n-1) is done by first finding the correct spot using binary search, 
+	 * then inserting at that spot. If the search finds a posting with the same frequency, the
+	 * spot is right after that posting, which need not be the last posting with that frequency,
+	 * so a list inserted into is not always in document id order among equal frequencies (as a
+	 * list built by makeIndex is).
+	 * 
+	 * @param occs Posting list
+	 * @return Sequence of mid point indexes in the input list checked by the binary search process,
+	 *         empty if the size of the input list is 1. This returned array list is only used to test
+	 *         your code - it is not used elsewhere in the program.
+	 */
+	public ArrayList<Integer> insertLastOccurrence(PostingList occs) {
+		ArrayList<Integer> midl = new ArrayList<Integer>();
+		occs.insertLast(midl);
+		return midl;
+	}
+	
+	/**
+	 * Search result for "kw1 or kw2". A document is in the result set if kw1 or kw2 occurs in that
+	 * document. Result set is arranged in descending order of occurrence frequencies. (Note that a
+	 * matching document will only appear once in the result.) Ties in frequency values are broken
+	 * in favor of the first keyword. (That is, if kw1 is in doc1 with frequency f1, and kw2 is in doc2
+	 * also with the same frequency f1, then doc1 will appear before doc2 in the result. 
+	 * The result set is limited to 5 entries. If there are no matching documents, the result is empty.
+	 * 
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @return List of NAMES of documents in which either kw1 or kw2 occurs, arranged in descending order of
+	 *         frequencies. The result size is limited to 5 documents. If there are no matching documents,
+	 *         the result is empty.
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2) {
+		return topK(5, kw1, kw2);
+	}
+	
+	/**
+	 * Search result for "kw1 or kw2 or ...". A document is in the result set if any of the keywords
+	 * occurs in it, and it is ranked by the highest frequency of any of the keywords in it. Ties in 
+	 * frequency values are broken in favor of the earlier keyword, and then in the order of that
+	 * keyword's occurrence list. Each matching document appears only once in the result. 
+	 * 
+	 * A list read in document order (a compressed list, or any list in a search that also has
+	 * one) breaks ties in document id order. That is the order of a list built by makeIndex, but
+	 * not always of one that had documents merged into it later (see insertLastOccurrence), so
+	 * the results of such a list can differ in which of several equally ranked documents they keep.
+	 * 
+	 * The posting list of each keyword is fetched directly from the index, and the lists
+	 * are merged with a heap of list cursors, so only as many occurrences as are needed to fill the
+	 * result are looked at. If any of the lists are compressed, they are read in document order
+	 * instead, without decoding them first. Keywords are normalized as by getKeyWord (see
+	 * normalize), and keywords that are not in the index are ignored.
+	 * 
+	 * @param k Maximum number of documents in the result
+	 * @param keywords Keywords to search for, in order of preference for breaking ties
+	 * @return List of NAMES of documents in which any of the keywords occurs, arranged in descending
+	 *         order of frequencies. The result size is limited to k documents. If there are no 
+	 *         matching documents, the result is empty.
+	 */
+	public ArrayList<String> topK(int k, String... keywords) {
+		return topK(null, k, keywords);
+	}
+	
+	/**
+	 * Same as topK(k, keywords), but also counts the postings that the search read and skipped.
+	 * 
+	 * @param stats Counts to add this search to, or null
+	 * @param k Maximum number of documents in the result
+	 * @param keywords Keywords to search for, in order of preference for breaking ties
+	 * @return List of NAMES of documents in which any of the keywords occurs, arranged in descending
+	 *         order of frequencies. The result size is limited to k documents.
+	 */
+	public ArrayList<String> topK(SearchStats stats, int k, String... keywords) {
+		ArrayList<String> fin = new ArrayList<String>(Math.max(0, Math.min(k, 16)));
+		if (k <= 0) {
+			return fin;
+		}
+		keywords = normalize(keywords);
+		long gen = generation.get();
+		Postings[] lists = new Postings[keywords.length];
+		boolean documentOrder = false;
+		for (int i = 0; i < keywords.length; i++) {
+			lists[i] = lookup(keywords[i]);
+			documentOrder |= lists[i] != null && lists[i].documentOrder();
+		}
+		// only a search that reads whole lists in document order is worth caching; keyword
+		// order breaks ties, so it is part of the query
+		QueryCache cache = stats == null && documentOrder ? this.cache : null;
+		String query = null;
+		if (cache != null) {
+			query = query('o', k, keywords);
+			ArrayList<String> cached = cache.get(query, gen);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		TopHits hits = topHits(k, lists, stats);
+		for (int i = 0; i < hits.size; i++) {
+			fin.add(documents.name(hits.docs[i]));
+		}
+		if (cache != null) {
+			cache.put(query, gen, fin);
+		}
+		return fin;
+	}
+	
+	/**
+	 * Returns the top k documents for the given keywords, ranked as by topK, by id and with the
+	 * frequency and keyword rank each one was ranked by.
+	 * 
+	 * @param k Maximum number of documents in the result
+	 * @param keywords Keywords to search for, in order of preference for breaking ties
+	 * @return Best documents, best first
+	 */
+	TopHits topHits(int k, String... keywords) {
+		return topHits(null, k, keywords);
+	}
+	
+	/**
+	 * Same as topHits(k, keywords), but also counts the postings that the search read and skipped.
+	 * Keywords are normalized as by topK.
+	 */
+	TopHits topHits(SearchStats stats, int k, String... keywords) {
+		keywords = normalize(keywords);
+		Postings[] lists = new Postings[keywords.length];
+		for (int i = 0; i < keywords.length; i++) {
+			lists[i] = lookup(keywords[i]);
+		}
+		return topHits(k, lists, stats);
+	}
+	
+	/**
+	 * Returns the top k documents for the given posting lists, ranked as by topK.
+	 * 
+	 * @param k Maximum number of documents in the result
+	 * @param lists Postings of each keyword, in order of preference for breaking ties (null for
+	 *        keywords that are not in the index)
+	 * @param stats Counts to add this search to, or null
+	 * @return Best documents, best first
+	 */
+	static TopHits topHits(int k, Postings[] lists, SearchStats stats) {
+		if (stats != null) {
+			stats.searches++;
+			for (Postings list : lists) {
+				if (list != null) {
+					stats.lists++;
+					stats.postings += list.size();
+				}
+			}
+		}
+		for (Postings list : lists) {
+			if (list != null && list.documentOrder()) {
+				return scoreByDocument(k, lists, stats);
+			}
+		}
+		return mergeByFrequency(k, lists, stats);
+	}
+	
+	/**
+	 * Search result for "kw1 and kw2 and ...". A document is in the result set if every one of
+	 * the keywords occurs in it, and it is ranked by the total frequency of the keywords in it,
+	 * with ties going to the lower document id (the earlier document).
+	 * 
+	 * The posting lists are intersected in document id order, starting from the rarest keyword:
+	 * each of its documents is looked for in the other lists by skipping ahead, and when another
+	 * list has no such document, the rarest list skips ahead to the next document that list does
+	 * have. In-memory lists skip by galloping search over a copy in document id order, which is
+	 * kept until the list changes; compressed lists skip whole blocks using their skip entries.
+	 * Keywords are normalized as by getKeyWord (see normalize), and if any keyword is not in the
+	 * index, the result is empty.
+	 * 
+	 * @param k Maximum number of documents in the result
+	 * @param keywords Keywords that must all occur in a document
+	 * @return List of NAMES of documents in which all the keywords occur, arranged in descending order
+	 *         of total frequency. The result size is limited to k documents.
+	 */
+	public ArrayList<String> topKAnd(int k, String... keywords) {
+		ArrayList<String> fin = new ArrayList<String>(Math.max(0, Math.min(k, 16)));
+		if (k <= 0 || keywords.length == 0) {
+			return fin;
+		}
+		keywords = normalize(keywords);
+		// the result does not depend on the order of the keywords, so they are sorted in the query
+		QueryCache cache = this.cache;
+		String query = null;
+		long gen = generation.get();
+		if (cache != null) {
+			String[] sorted = keywords.clone();
+			Arrays.sort(sorted);
+			query = query('a', k, sorted);
+			ArrayList<String> cached = cache.get(query, gen);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		Postings[] lists = new Postings[keywords.length];
+		boolean all = true;
+		for (int i = 0; i < keywords.length && all; i++) {
+			lists[i] = lookup(keywords[i]);
+			all = lists[i] != null;
+		}
+		if (all) {
+			TopHits hits = intersect(k, lists);
+			for (int i = 0; i < hits.size; i++) {
+				fin.add(documents.name(hits.docs[i]));
+			}
+		}
+		if (cache != null) {
+			cache.put(query, gen, fin);
+		}
+		return fin;
+	}
+	
+	/**
+	 * Search result for "kw1 or kw2 or ..." ranked by BM25 (see BM25) instead of by frequency. A
+	 * document is in the result set if any of the keywords occurs in it, and its score is the sum
+	 * of the BM25 scores of the keywords in it, so documents with more of the keywords, rarer
+	 * keywords, and more occurrences relative to their length rank first. Ties go to the lower
+	 * document id. Keywords are normalized as by getKeyWord (see normalize), and keywords that
+	 * are not in the index are ignored. Scores are added up in sorted keyword order, so the
+	 * result does not depend on the order of the keywords, even in the last bits of the scores.
+	 * 
+	 * Document lengths are recorded when documents are merged (see register), and the collection
+	 * statistics are taken as they are when the search starts. The search is a block-max WAND
+	 * (see blockMaxWand), which skips the postings of documents that cannot get into the top k.
+	 * It needs a bound on the scores in each block of each keyword's list, which is worked out for
+	 * each search from the impacts kept with the list (see BlockImpacts and BlockMaxScores).
+	 * 
+	 * @param k Maximum number of documents in the result
+	 * @param keywords Keywords to search for
+	 * @return List of NAMES of documents in which any of the keywords occur, arranged in descending
+	 *         order of BM25 score. The result size is limited to k documents.
+	 */
+	public ArrayList<String> topKBM25(int k, String... keywords) {
+		return topKBM25(null, k, keywords);
+	}
+	
+	/**
+	 * Version of topKBM25 that adds the work done by the search to the given counts.
+	 * 
+	 * @param stats Counts to add this search to, or null
+	 * @param k Maximum number of documents in the result
+	 * @param keywords Keywords to search for
+	 * @return List of NAMES of documents, as for topKBM25
+	 */
+	public ArrayList<String> topKBM25(SearchStats stats, int k, String... keywords) {
+		ArrayList<String> fin = new ArrayList<String>(Math.max(0, Math.min(k, 16)));
+		if (k <= 0) {
+			return fin;
+		}
+		// scores are added in keyword order, which can change the last bits, so it is sorted
+		keywords = normalize(keywords);
+		if (keywords.length > 1) {
+			keywords = keywords.clone();
+			Arrays.sort(keywords);
+		}
+		QueryCache cache = stats == null ? this.cache : null;
+		String query = null;
+		long gen = generation.get();
+		if (cache != null) {
+			query = query('b', k, keywords);
+			ArrayList<String> cached = cache.get(query, gen);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		BM25 bm25 = scorer();
+		BlockMaxScores[] terms = new BlockMaxScores[keywords.length];
+		for (int i = 0; i < keywords.length; i++) {
+			terms[i] = blockMaxScores(keywords[i], bm25);
+		}
+		ScoredHits hits = blockMaxWand(k, terms, stats);
+		for (int i = 0; i < hits.size; i++) {
+			fin.add(documents.name(hits.docs[i]));
+		}
+		if (cache != null) {
+			cache.put(query, gen, fin);
+		}
+		return fin;
+	}
+	
+	/**
+	 * Returns a BM25 scorer for the current collection statistics. The scorer is kept until
+	 * the number or total length of the documents changes.
+	 */
+	BM25 scorer() {
+		BM25 bm25 = scorer;
+		if (bm25 == null || bm25.documents != documents.lengths() || bm25.totalLength != documents.totalLength()) {
+			bm25 = new BM25(documents);
+			scorer = bm25;
+		}
+		return bm25;
+	}
+	
+	/**
+	 * Returns the block maxima of a keyword's posting list for the given scorer, bounded from
+	 * the list's impacts.
+	 * 
+	 * @param keyword Keyword
+	 * @param bm25 Scorer
+	 * @return Block maxima, or null if the keyword is not in the index
+	 */
+	BlockMaxScores blockMaxScores(String keyword, BM25 bm25) {
+		Postings list = lookup(keyword);
+		if (list == null) {
+			return null;
+		}
+		return new BlockMaxScores(list, list.impacts(documents.norms()), bm25);
+	}
+	
+	/**
+	 * Finds the best k documents by BM25 with block-max WAND. The lists are walked in document
+	 * id order, and kept sorted by their current documents. The first list at which the sum of
+	 * the highest scores of the lists so far could beat the score of the k-th best document yet
+	 * is the pivot, and no document before the pivot's current one can get in. Before that
+	 * document is scored, the highest scores of the blocks it falls in, in the lists up to the
+	 * pivot, are added up; if they cannot beat the k-th best score either, the lists skip to the
+	 * end of the shortest of those blocks instead, without scoring anything. Otherwise, the lists
+	 * behind the pivot skip ahead to its document, and once they are all on it, it is scored.
+	 * 
+	 * Upper bounds are added in another order than the scores, so they are given a little slack
+	 * for rounding, and the result is the same as that of scoreBM25.
+	 * 
+	 * @param k Maximum number of documents in the result, at least 1
+	 * @param terms Block maxima of the list of each keyword (null for keywords that are not in
+	 *        the index), all computed with the same scorer
+	 * @param stats Counts to add this search to, or null; postings read are the ones scored
+	 * @return Best documents, best first
+	 */
+	static ScoredHits blockMaxWand(int k, BlockMaxScores[] terms, SearchStats stats) {
+		DocCursor[] cursors = new DocCursor[terms.length];
+		// current document of each list (MAX_VALUE when done), and its block
+		int[] docs = new int[terms.length], blocks = new int[terms.length];
+		int[] order = new int[terms.length];
+		float[] blockMax = new float[terms.length];
+		int n = 0;
+		BM25 bm25 = null;
+		for (int t = 0; t < terms.length; t++) {
+			docs[t] = Integer.MAX_VALUE;
+			if (terms[t] == null) {
+				continue;
+			}
+			if (stats != null) {
+				stats.lists++;
+				stats.postings += terms[t].list.size();
+			}
+			bm25 = terms[t].scorer;
+			cursors[t] = terms[t].list.docCursor();
+			if (cursors[t].next()) {
+				docs[t] = cursors[t].doc();
+				order[n++] = t;
+			}
+		}
+		if (stats != null) {
+			stats.searches++;
+		}
+		ScoredHits hits = new ScoredHits(k);
+		while (n > 0) {
+			// lists by current document; there are few of them, and they are mostly in order
+			for (int a = 1; a < n; a++) {
+				int t = order[a], doc = docs[t], b = a;
+				while (b > 0 && docs[order[b-1]] > doc) {
+					order[b] = order[b-1];
+					b--;
+				}
+				order[b] = t;
+			}
+			while (n > 0 && docs[order[n-1]] == Integer.MAX_VALUE) {
+				n--;
+			}
+			float threshold = hits.threshold();
+			float bound = 0;
+			int p = -1;
+			for (int a = 0; a < n && p < 0; a++) {
+				bound += terms[order[a]].maxScore;
+				if (beats(bound, threshold)) {
+					p = a;
+				}
+			}
+			if (p < 0) {
+				break;
+			}
+			int pivot = docs[order[p]];
+			while (p + 1 < n && docs[order[p+1]] == pivot) {
+				p++;
+			}
+			
+			bound = 0;
+			int end = Integer.MAX_VALUE;
+			for (int a = 0; a <= p; a++) {
+				int t = order[a];
+				blocks[t] = terms[t].block(blocks[t], pivot);
+				blockMax[t] = 0;
+				if (blocks[t] < terms[t].blocks) {
+					blockMax[t] = terms[t].maxScores[blocks[t]];
+					end = Math.min(end, terms[t].lastDocs[blocks[t]]);
+				}
+				bound += blockMax[t];
+			}
+			if (!beats(bound, threshold)) {
+				// nothing up to the end of the shortest block, or the next list's document, gets in
+				int target = end == Integer.MAX_VALUE ? end : end + 1;
+				if (p + 1 < n) {
+					target = Math.min(target, docs[order[p+1]]);
+				}
+				for (int a = 0; a <= p; a++) {
+					move(cursors, docs, order[a], target);
+				}
+			} else if (docs[order[0]] == pivot) {
+				// scores are added in keyword order, as by scoreBM25, and the scoring stops once
+				// the block maxima of the lists left show the document cannot get in
+				float score = 0;
+				for (int t = 0; t < terms.length; t++) {
+					if (docs[t] == pivot) {
+						score += bm25.score(terms[t].weight, pivot, cursors[t].freq());
+						if (stats != null) {
+							stats.read++;
+						}
+						bound -= blockMax[t];
+						if (!beats(score + bound, threshold)) {
+							break;
+						}
+					}
+				}
+				if (beats(score + bound, threshold)) {
+					hits.offer(pivot, score);
+				}
+				for (int a = 0; a <= p; a++) {
+					int t = order[a];
+					docs[t] = cursors[t].next() ? cursors[t].doc() : Integer.MAX_VALUE;
+				}
+			} else {
+				for (int a = 0; a < p; a++) {
+					move(cursors, docs, order[a], pivot);
+				}
+			}
+		}
+		hits.sort();
+		return hits;
+	}
+	
+	/**
+	 * Moves a list of blockMaxWand to its first document at or after the target.
+	 */
+	private static void move(DocCursor[] cursors, int[] docs, int t, int target) {
+		if (docs[t] >= target) {
+			return;
+		}
+		if (target == Integer.MAX_VALUE || !cursors[t].advance(target)) {
+			docs[t] = Integer.MAX_VALUE;
+		} else {
+			docs[t] = cursors[t].doc();
+		}
+	}
+	
+	/**
+	 * Returns true if a document with the given upper bound on its score may beat the threshold.
+	 */
+	private static boolean beats(float bound, float threshold) {
+		return bound*1.0001f > threshold;
+	}
+	
+	/**
+	 * Scores every posting of the given lists with BM25, in document id order, and keeps the
+	 * best k documents.
+	 * 
+	 * @param k Maximum number of documents in the result, at least 1
+	 * @param lists Postings of each keyword (null for keywords that are not in the index)
+	 * @param bm25 Scorer
+	 * @param stats Counts to add this search to, or null
+	 * @return Best documents, best first
+	 */
+	static ScoredHits scoreBM25(int k, Postings[] lists, BM25 bm25, SearchStats stats) {
+		DocCursor[] cursors = new DocCursor[lists.length];
+		float[] weights = new float[lists.length];
+		for (int i = 0; i < lists.length; i++) {
+			if (lists[i] == null) {
+				continue;
+			}
+			if (stats != null) {
+				stats.lists++;
+				stats.postings += lists[i].size();
+				stats.read += lists[i].size();
+			}
+			weights[i] = bm25.weight(lists[i].size());
+			cursors[i] = lists[i].docCursor();
+			if (!cursors[i].next()) {
+				cursors[i] = null;
+			}
+		}
+		if (stats != null) {
+			stats.searches++;
+		}
+		ScoredHits hits = new ScoredHits(k);
+		while (true) {
+			int doc = Integer.MAX_VALUE;
+			for (DocCursor c : cursors) {
+				if (c != null && c.doc() < doc) {
+					doc = c.doc();
+				}
+			}
+			if (doc == Integer.MAX_VALUE) {
+				break;
+			}
+			// scores are added in keyword order, so any evaluation of the query gets the same sums
+			float score = 0;
+			for (int i = 0; i < cursors.length; i++) {
+				DocCursor c = cursors[i];
+				if (c != null && c.doc() == doc) {
+					score += bm25.score(weights[i], doc, c.freq());
+					if (!c.next()) {
+						cursors[i] = null;
+					}
+				}
+			}
+			hits.offer(doc, score);
+		}
+		hits.sort();
+		return hits;
+	}
+	
+	/**
+	 * Search result for a prefix or trailing wildcard, such as "giraf*": the keywords that start
+	 * with the prefix are found in sorted order, up to MAX_EXPANSIONS of them, and their documents
+	 * are ranked as by topK, with the keywords in sorted order. See topKPrefix(k, pattern, maxTerms).
+	 * 
+	 * @param k Maximum number of documents in the result
+	 * @param pattern Prefix, with or without a trailing '*'
+	 * @return List of NAMES of documents in which any of the matching keywords occurs, arranged in
+	 *         descending order of frequencies. The result size is limited to k documents.
+	 */
+	public ArrayList<String> topKPrefix(int k, String pattern) {
+		return topKPrefix(k, pattern, MAX_EXPANSIONS);
+	}
+	
+	/**
+	 * Search result for a prefix or trailing wildcard, such as "giraf*". The pattern is a run of
+	 * letters followed by '*' (or by nothing, or other trailing punctuation, as for getKeyWord),
+	 * and any other pattern matches nothing. The prefix is the letters, lower cased; it is not
+	 * tested against the noise words, so "the*" finds "their". The keywords that start with the
+	 * prefix are found in sorted order (see expand), and only the first maxTerms of them are
+	 * searched for, so a short prefix can not make a search touch a large part of the index.
+	 * Their posting lists are merged as by topK, with the keywords in sorted order for breaking
+	 * ties.
+	 * 
+	 * @param k Maximum number of documents in the result
+	 * @param pattern Prefix, with or without a trailing '*'
+	 * @param maxTerms Most keywords to search for
+	 * @return List of NAMES of documents in which any of the matching keywords occurs, arranged in
+	 *         descending order of frequencies. The result size is limited to k documents.
+	 */
+	public ArrayList<String> topKPrefix(int k, String pattern, int maxTerms) {
+		ArrayList<String> fin = new ArrayList<String>();
+		int len = KeywordNormalizer.letters(pattern);
+		if (k <= 0 || maxTerms <= 0 || len == 0) {
+			return fin;
+		}
+		String prefix = KeywordNormalizer.keyword(pattern, len);
+		QueryCache cache = this.cache;
+		String query = null;
+		long gen = generation.get();
+		if (cache != null) {
+			query = query('p', k, prefix, Integer.toString(maxTerms));
+			ArrayList<String> cached = cache.get(query, gen);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		ArrayList<String> terms = expand(prefix, maxTerms);
+		TopHits hits = topHits(k, terms.toArray(new String[terms.size()]));
+		for (int i = 0; i < hits.size; i++) {
+			fin.add(documents.name(hits.docs[i]));
+		}
+		if (cache != null) {
+			cache.put(query, gen, fin);
+		}
+		return fin;
+	}
+	
+	/**
+	 * Returns the keywords in the index that start with the given prefix, in sorted order, up
+	 * to the given number of them. Each store of keywords is searched in its own sorted order:
+	 * the dictionary made by compact, the segment the engine was loaded from, and a sorted set of
+	 * the keywords in the hash tables, which is kept up to date as keywords are added to them, so
+	 * a search takes O(log V + matches) time, however often the index changes.
+	 * 
+	 * @param prefix Prefix, as a keyword would be written (see getKeyWord)
+	 * @param max Most keywords to return
+	 * @return Keywords
+	 */
+	ArrayList<String> expand(String prefix, int max) {
+		ArrayList<String> terms = new ArrayList<String>();
+		int stores = 0;
+		for (String term : memoryTerms.subSet(prefix, prefix + '\uffff')) {
+			if (terms.size() == max) {
+				break;
+			}
+			terms.add(term);
+		}
+		if (!terms.isEmpty()) {
+			stores++;
+		}
+		if (dictionary != null && dictionary.prefixed(prefix, max, terms) > 0) {
+			stores++;
+		}
+		if (segment != null && segment.prefixed(prefix, max, terms) > 0) {
+			stores++;
+		}
+		if (stores > 1) {
+			TreeSet<String> sorted = new TreeSet<String>(terms);
+			terms.clear();
+			for (String term : sorted) {
+				if (terms.size() == max) {
+					break;
+				}
+				terms.add(term);
+			}
+		}
+		return terms;
+	}
+	
+	/**
+	 * Search result for a phrase: the documents in which the words of the phrase occur one right
+	 * after the other, ranked by the number of times the phrase occurs, with ties going to the
+	 * lower document id. The words of the phrase are separated by white space, and go through
+	 * getKeyWord; a noise word in the phrase matches any one word, except at the start and end of
+	 * the phrase, where it is ignored. Positions must have been recorded (see recordPositions)
+	 * when the documents were loaded.
+	 * 
+	 * Documents are found by looking up the rarest keyword's documents in the position lists of
+	 * the others; in each document that has them all, the positions of the first keyword are
+	 * checked against the positions of the others, shifted by their offsets in the phrase.
+	 * 
+	 * @param k Maximum number of documents in the result
+	 * @param phrase Phrase to search for
+	 * @return List of NAMES of documents in which the phrase occurs, arranged in descending order
+	 *         of the number of occurrences. The result size is limited to k documents. If the
+	 *         phrase has no keywords, the result is empty.
+	 * @throws IllegalStateException If positions are not recorded
+	 */
+	public ArrayList<String> phraseSearch(int k, String phrase) {
+		if (positions == null) {
+			throw new IllegalStateException("Positions are not recorded");
+		}
+		ArrayList<String> fin = new ArrayList<String>();
+		String[] words = phrase.trim().split("\\s+");
+		ArrayList<PositionIndex.Positions> lists = new ArrayList<PositionIndex.Positions>(words.length);
+		int[] offsets = new int[words.length];
+		for (int w = 0; w < words.length; w++) {
+			String kw = words[w].isEmpty() ? null : getKeyWord(words[w]);
+			if (kw == null) {
+				continue;
+			}
+			PositionIndex.Positions list = positions.get(kw);
+			if (list == null) {
+				return fin;
+			}
+			offsets[lists.size()] = w;
+			lists.add(list);
+		}
+		if (k <= 0 || lists.isEmpty()) {
+			return fin;
+		}
+		TopHits hits = PositionIndex.phrase(k, lists.toArray(new PositionIndex.Positions[lists.size()]),
+				Arrays.copyOf(offsets, lists.size()));
+		for (int i = 0; i < hits.size; i++) {
+			fin.add(documents.name(hits.docs[i]));
+		}
+		return fin;
+	}
+	
+	/**
+	 * Finds the top k documents for topKAnd, by intersecting the lists with doc cursors.
+	 * 
+	 * @param k Maximum number of documents in the result
+	 * @param lists Postings of each keyword, none null
+	 * @return Best documents, best first, with their total frequencies
+	 */
+	static TopHits intersect(int k, Postings[] lists) {
+		Postings[] bySize = lists.clone();
+		Arrays.sort(bySize, new Comparator<Postings>() {
+			public int compare(Postings a, Postings b) {
+				return Integer.compare(a.size(), b.size());
+			}
+		});
+		DocCursor[] cursors = new DocCursor[bySize.length];
+		for (int i = 0; i < cursors.length; i++) {
+			cursors[i] = bySize[i].docCursor();
+		}
+		int cap = Math.min(k, bySize[0].size());
+		int[] topDoc = new int[cap], topFreq = new int[cap];
+		int n = 0;
+		DocCursor lead = cursors[0];
+		boolean more = lead.next();
+		while (more) {
+			int doc = lead.doc();
+			int freq = lead.freq();
+			int i = 1;
+			for (; i < cursors.length; i++) {
+				if (!cursors[i].advance(doc)) {
+					return hits(topDoc, topFreq, n);
+				}
+				if (cursors[i].doc() != doc) {
+					break;
+				}
+				freq += cursors[i].freq();
+			}
+			if (i < cursors.length) {
+				more = lead.advance(cursors[i].doc());
+				continue;
+			}
+			if (n < cap || freq > topFreq[n-1]) {
+				int pos = n < cap ? n++ : n - 1;
+				while (pos > 0 && freq > topFreq[pos-1]) {
+					topDoc[pos] = topDoc[pos-1];
+					topFreq[pos] = topFreq[pos-1];
+					pos--;
+				}
+				topDoc[pos] = doc;
+				topFreq[pos] = freq;
+			}
+			more = lead.next();
+		}
+		return hits(topDoc, topFreq, n);
+	}
+	
+	private static TopHits hits(int[] docs, int[] freqs, int n) {
+		TopHits hits = new TopHits(n);
+		for (int i = 0; i < n; i++) {
+			hits.add(docs[i], freqs[i], 0);
+		}
+		return hits;
+	}
+	
+	/**
+	 * Finds the top k documents for topK when all the posting lists are in descending order
+	 * of frequencies. This is the threshold algorithm (in its no-random-access form, since a
+	 * document's score is its highest frequency in any list, which is the first one seen): the
+	 * lists are read in parallel through a heap of cursors, always advancing the one with the
+	 * highest frequency next, and the frequency at the top of the heap is an upper bound on the
+	 * score of every document not seen yet. A document is final as soon as it comes out of the
+	 * heap, so the search stops reading as soon as k different documents have come out; the
+	 * k-th best score is then at least the bound. Only a prefix of each list is read.
+	 */
+	private static TopHits mergeByFrequency(int k, Postings[] lists, SearchStats stats) {
+		PriorityQueue<ListCursor> heap = new PriorityQueue<ListCursor>(Math.max(1, lists.length));
+		long read = 0;
+		for (int i = 0; i < lists.length; i++) {
+			if (lists[i] != null) {
+				PostingCursor c = lists[i].cursor();
+				if (c.next()) {
+					read++;
+					heap.add(new ListCursor(c, i));
+				}
+			}
+		}
+		TopHits hits = new TopHits(Math.min(k, 64));
+		BitSet seen = k > 64 ? new BitSet() : null;
+		while (hits.size < k && !heap.isEmpty()) {
+			ListCursor c = heap.poll();
+			int doc = c.postings.doc();
+			if (seen != null ? !seen.get(doc) : !contains(hits.docs, hits.size, doc)) {
+				if (seen != null) {
+					seen.set(doc);
+				}
+				hits.add(doc, c.postings.freq(), c.rank);
+			}
+			if (hits.size < k && c.postings.next()) {
+				read++;
+				heap.add(c);
+			}
+		}
+		if (stats != null) {
+			stats.read += read;
+		}
+		return hits;
+	}
+	
+	/**
+	 * Finds the top k documents for topK when some of the posting lists are compressed, by
+	 * going through all the lists together in document id order (lists that are in frequency
+	 * order are sorted by document id first). Each document is scored 
+	 * with its highest frequency (and the earliest keyword with that frequency), and the best
+	 * k are kept in a sorted array. Among equal scores, lower document ids come first, which
+	 * is the order of equal frequencies in an uncompressed list. Every posting is read.
+	 */
+	private static TopHits scoreByDocument(int k, Postings[] lists, SearchStats stats) {
+		if (stats != null) {
+			for (Postings list : lists) {
+				if (list != null) {
+					stats.read += list.size();
+				}
+			}
+		}
+		PostingCursor[] cursors = new PostingCursor[lists.length];
+		long total = 0;
+		for (int i = 0; i < lists.length; i++) {
+			if (lists[i] == null) {
+				continue;
+			}
+			cursors[i] = lists[i].documentOrder() ? lists[i].cursor() : lists[i].decode().byDocument().cursor();
+			total += lists[i].size();
+			if (!cursors[i].next()) {
+				cursors[i] = null;
+			}
+		}
+		int cap = (int)Math.min(k, total);
+		int[] topDoc = new int[cap], topFreq = new int[cap], topRank = new int[cap];
+		int n = 0;
+		while (true) {
+			int doc = Integer.MAX_VALUE;
+			for (PostingCursor c : cursors) {
+				if (c != null && c.doc() < doc) {
+					doc = c.doc();
+				}
+			}
+			if (doc == Integer.MAX_VALUE) {
+				break;
+			}
+			int freq = -1, rank = 0;
+			for (int i = 0; i < cursors.length; i++) {
+				PostingCursor c = cursors[i];
+				while (c != null && c.doc() == doc) {
+					if (c.freq() > freq) {
+						freq = c.freq();
+						rank = i;
+					}
+					if (!c.next()) {
+						c = cursors[i] = null;
+					}
+				}
+			}
+			if (n == cap && (freq < topFreq[n-1] || freq == topFreq[n-1] && rank >= topRank[n-1])) {
+				continue;
+			}
+			int pos = n < cap ? n++ : n - 1;
+			while (pos > 0 && (freq > topFreq[pos-1] || freq == topFreq[pos-1] && rank < topRank[pos-1])) {
+				topDoc[pos] = topDoc[pos-1];
+				topFreq[pos] = topFreq[pos-1];
+				topRank[pos] = topRank[pos-1];
+				pos--;
+			}
+			topDoc[pos] = doc;
+			topFreq[pos] = freq;
+			topRank[pos] = rank;
+		}
+		TopHits hits = new TopHits(n);
+		for (int i = 0; i < n; i++) {
+			hits.add(topDoc[i], topFreq[i], topRank[i]);
+		}
+		return hits;
+	}
+	
+	private static boolean contains(int[] docs, int n, int doc) {
+		for (int i = 0; i < n; i++) {
+			if (docs[i] == doc) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Position in the posting list of one search keyword. Cursors are ordered by the frequency
+	 * at the current position (highest first), with ties going to the earlier keyword.
+	 */
+	private static class ListCursor implements Comparable<ListCursor> {
+		final PostingCursor postings;
+		final int rank;
+		
+		ListCursor(PostingCursor postings, int rank) {
+			this.postings = postings;
+			this.rank = rank;
+		}
+		
+		public int compareTo(ListCursor o) {
+			int f1 = postings.freq(), f2 = o.postings.freq();
+			if (f1 != f2) {
+				return f1 > f2 ? -1 : 1;
+			}
+			return rank - o.rank;
+		}
+	}
+}
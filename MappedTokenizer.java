@@ -0,0 +1,126 @@
+package search;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class reads the words of a document by memory-mapping the file and walking its bytes
+ * directly. Words are separated by white space, as with a Scanner. Each word is lower-cased
+ * and stripped of trailing punctuation into a reusable byte buffer as it is read, and words
+ * that fail the keyword letter test are skipped without ever being turned into Strings.
+ *
+ * Bytes are classified with the KeywordNormalizer table, so the document is treated as ASCII
+ * text: bytes outside the ASCII range are never letters or white space.
+ */
+class MappedTokenizer {
+
+	/**
+	 * Largest part of the file that is mapped at one time.
+	 */
+	static final long WINDOW = 1L << 30;
+
+	/**
+	 * The lower-cased letters of the last word returned by next.
+	 */
+	byte[] buf = new byte[64];
+
+	/**
+	 * Position of the last word returned by next: the number of words of any kind before it.
+	 */
+	int position = -1;
+
+	private final FileChannel channel;
+	private final long size;
+	private long mapped;
+	private MappedByteBuffer window;
+
+	/**
+	 * Opens the given document for reading.
+	 *
+	 * @param docFile Name of the document file
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	MappedTokenizer(String docFile)
+	throws FileNotFoundException {
+		RandomAccessFile raf = new RandomAccessFile(docFile, "r");
+		channel = raf.getChannel();
+		try {
+			size = channel.size();
+		} catch (IOException e) {
+			close();
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Reads up to the next word that consists of letters followed only by trailing punctuation,
+	 * and leaves its lower-cased letters (without the punctuation) in buf.
+	 *
+	 * @return Number of letters in buf, or 0 if there are no more such words in the document
+	 */
+	int next() {
+		while (true) {
+			// skip white space
+			int b;
+			do {
+				b = read();
+				if (b < 0) {
+					return 0;
+				}
+			} while (KeywordNormalizer.CLASS[b] == KeywordNormalizer.SPACE);
+			position++;
+
+			// letters first
+			int len = 0;
+			while (b >= 0 && KeywordNormalizer.CLASS[b] == KeywordNormalizer.LETTER) {
+				if (len == buf.length) {
+					byte[] nbuf = new byte[len*2];
+					System.arraycopy(buf, 0, nbuf, 0, len);
+					buf = nbuf;
+				}
+				buf[len++] = (byte)(b | 0x20);
+				b = read();
+			}
+
+			// then only non-letters up to the end of the word
+			boolean keyword = len > 0;
+			while (b >= 0 && KeywordNormalizer.CLASS[b] != KeywordNormalizer.SPACE) {
+				if (KeywordNormalizer.CLASS[b] == KeywordNormalizer.LETTER) {
+					keyword = false;
+				}
+				b = read();
+			}
+			if (keyword) {
+				return len;
+			}
+		}
+	}
+
+	/**
+	 * Releases the file. The tokenizer cannot be used after this.
+	 */
+	void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// nothing more to do
+		}
+	}
+
+	private int read() {
+		if (window == null || !window.hasRemaining()) {
+			if (mapped == size) {
+				return -1;
+			}
+			long len = Math.min(WINDOW, size - mapped);
+			try {
+				window = channel.map(FileChannel.MapMode.READ_ONLY, mapped, len);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			mapped += len;
+		}
+		return window.get() & 0xff;
+	}
+}
@@ -0,0 +1,205 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class is a compiled, immutable set of noise words that can be checked against a candidate
+ * keyword in place, either in a String (lower-casing ASCII letters on the fly) or in a byte
+ * buffer of lower case letters, without creating a String for the candidate.
+ *
+ * The words are packed into a single character array, and found through an open-addressed
+ * hash table of word numbers that is at most half full, so a lookup hashes the candidate once
+ * and compares it with about one word. Since a filter never changes once it is compiled, one
+ * filter can be shared by any number of threads and search engines; compile hands out the same
+ * filter for the same unchanged noise words file.
+ */
+class NoiseWordFilter {
+
+	/**
+	 * Filters already compiled, by noise words file.
+	 */
+	private static final ConcurrentHashMap<String,NoiseWordFilter> compiled =
+		new ConcurrentHashMap<String,NoiseWordFilter>();
+
+	/**
+	 * Characters of all the words, back to back. Word w is chars[offsets[w]..offsets[w+1]-1].
+	 */
+	private final char[] chars;
+	private final int[] offsets;
+
+	/**
+	 * Hash code of each word.
+	 */
+	private final int[] hashes;
+
+	/**
+	 * Hash table of word numbers, -1 for an empty slot. Its length is a power of 2.
+	 */
+	private final int[] slots;
+
+	/**
+	 * Source of the words, used to tell if a compiled filter is still current.
+	 */
+	private final long modified, length;
+
+	/**
+	 * Returns the compiled noise words in the given file, one noise word per line. The file is
+	 * read only the first time, or when it has changed since it was last compiled.
+	 *
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @return Compiled noise words
+	 * @throws FileNotFoundException If the noise words file is not found on disk
+	 */
+	static NoiseWordFilter compile(String noiseWordsFile)
+	throws FileNotFoundException {
+		File file = new File(noiseWordsFile);
+		String key;
+		try {
+			key = file.getCanonicalPath();
+		} catch (IOException e) {
+			key = file.getAbsolutePath();
+		}
+		NoiseWordFilter filter = compiled.get(key);
+		if (filter != null && filter.modified == file.lastModified() && filter.length == file.length()) {
+			return filter;
+		}
+		long modified = file.lastModified(), length = file.length();
+		LinkedHashSet<String> words = new LinkedHashSet<String>();
+		Scanner sc = new Scanner(file);
+		while (sc.hasNext()) {
+			words.add(sc.next());
+		}
+		sc.close();
+		filter = new NoiseWordFilter(words, modified, length);
+		compiled.put(key, filter);
+		return filter;
+	}
+
+	/**
+	 * Compiles the given noise words.
+	 *
+	 * @param noiseWords Noise words, in lower case
+	 */
+	NoiseWordFilter(Collection<String> noiseWords) {
+		this(new LinkedHashSet<String>(noiseWords), -1, -1);
+	}
+
+	private NoiseWordFilter(Set<String> words, long modified, long length) {
+		this.modified = modified;
+		this.length = length;
+		int n = words.size();
+		offsets = new int[n + 1];
+		hashes = new int[n];
+		int total = 0;
+		for (String w : words) {
+			total += w.length();
+		}
+		chars = new char[total];
+		int cap = 2;
+		while (cap < 2*n) {
+			cap <<= 1;
+		}
+		slots = new int[cap];
+		Arrays.fill(slots, -1);
+
+		int w = 0, pos = 0;
+		for (String word : words) {
+			word.getChars(0, word.length(), chars, pos);
+			offsets[w] = pos;
+			pos += word.length();
+			int h = word.hashCode();
+			hashes[w] = h;
+			int s = mix(h) & (cap - 1);
+			while (slots[s] != -1) {
+				s = (s + 1) & (cap - 1);
+			}
+			slots[s] = w;
+			w++;
+		}
+		offsets[n] = pos;
+	}
+
+	/**
+	 * Number of noise words.
+	 */
+	int size() {
+		return hashes.length;
+	}
+
+	/**
+	 * Returns all the noise words.
+	 */
+	ArrayList<String> words() {
+		ArrayList<String> list = new ArrayList<String>(size());
+		for (int w = 0; w < size(); w++) {
+			list.add(new String(chars, offsets[w], offsets[w+1] - offsets[w]));
+		}
+		return list;
+	}
+
+	/**
+	 * Tells whether the first len characters of the given word, in lower case, are a noise word.
+	 *
+	 * @param word Candidate word, whose first len characters are ASCII letters
+	 * @param len Length of the candidate
+	 * @return True if the candidate is a noise word
+	 */
+	boolean contains(CharSequence word, int len) {
+		int h = 0;
+		for (int i = 0; i < len; i++) {
+			h = 31*h + (word.charAt(i) | 0x20);
+		}
+		int mask = slots.length - 1;
+		for (int s = mix(h) & mask; slots[s] != -1; s = (s + 1) & mask) {
+			int w = slots[s];
+			if (hashes[w] == h && offsets[w+1] - offsets[w] == len) {
+				int off = offsets[w], i = 0;
+				while (i < len && chars[off + i] == (word.charAt(i) | 0x20)) {
+					i++;
+				}
+				if (i == len) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Tells whether the first len bytes of the given buffer are a noise word.
+	 *
+	 * @param buf Lower case ASCII letters
+	 * @param len Length of the candidate
+	 * @return True if the candidate is a noise word
+	 */
+	boolean contains(byte[] buf, int len) {
+		int h = 0;
+		for (int i = 0; i < len; i++) {
+			h = 31*h + buf[i];
+		}
+		int mask = slots.length - 1;
+		for (int s = mix(h) & mask; slots[s] != -1; s = (s + 1) & mask) {
+			int w = slots[s];
+			if (hashes[w] == h && offsets[w+1] - offsets[w] == len) {
+				int off = offsets[w], i = 0;
+				while (i < len && chars[off + i] == buf[i]) {
+					i++;
+				}
+				if (i == len) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Spreads the bits of a String hash code over the table index.
+	 */
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
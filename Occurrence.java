@@ -0,0 +1,58 @@
+package search;
+
+/**
+ * This class encapsulates an occurrence of a keyword in a document. It stores the
+ * document id, and the frequency of occurrence in that document. Occurrences are
+ * associated with keywords in an index hash table. Document ids are mapped to names
+ * by the DocumentTable of the search engine.
+ * 
+ * @author Sesh Venugopal
+ * 
+ */
+class Occurrence {
+	/**
+	 * Id of the document in which a keyword occurs.
+	 */
+	int document;
+	
+	/**
+	 * The frequency (number of times) the keyword occurs in the above document.
+	 */
+	int frequency;
+	
+	/**
+	 * Positions of the keyword in the document as variable-byte gaps, and the last position,
+	 * if the search engine records positions; otherwise null.
+	 */
+	VarInt positions;
+	int lastPosition;
+	
+	/**
+	 * Initializes this occurrence with the given document,frequency pair.
+	 * 
+	 * @param doc Document id
+	 * @param freq Frequency
+	 */
+	public Occurrence(int doc, int freq) {
+		document = doc;
+		frequency = freq;
+	}
+	
+	/**
+	 * Adds the next position of the keyword in the document.
+	 * 
+	 * @param position Position, after all the positions already added
+	 */
+	void addPosition(int position) {
+		if (positions == null) {
+			positions = new VarInt(8);
+			lastPosition = 0;
+		}
+		positions.write(position - lastPosition);
+		lastPosition = position;
+	}
+	
+	public String toString() {
+		return "(" + document + "," + frequency + ")";
+	}
+}
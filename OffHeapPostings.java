@@ -0,0 +1,173 @@
+package search;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * This class is a handle to a sealed posting list that is stored outside the Java heap, in
+ * memory allocated by an Arena. Only the handle (a chunk reference, an offset and a size) and
+ * the list's impacts (see BlockImpacts, three numbers per block of postings) are on the heap,
+ * so the garbage collector never has to scan the postings themselves. The postings
+ * are stored twice, as (int doc, int freq) pairs: in descending order of frequencies, and then
+ * in document id order, for document cursors. They are read with absolute gets, so any number
+ * of threads can read them at once.
+ */
+class OffHeapPostings implements Postings {
+
+	/**
+	 * This class allocates off-heap memory for posting lists in large direct chunks, and copies
+	 * sealed posting lists into it. Memory is only given back when the arena and all the
+	 * handles into it are no longer reachable; posting lists are never freed one at a time.
+	 */
+	static class Arena {
+
+		/**
+		 * Size of a chunk, unless a posting list needs a bigger one.
+		 */
+		static final int CHUNK = 1 << 24;
+
+		private final ArrayList<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+		private ByteBuffer current;
+
+		/**
+		 * Copies a posting list into the arena, in both orders.
+		 *
+		 * @param list Posting list, in descending order of frequencies
+		 * @param norms Document norms, for the list's impacts
+		 * @return Handle to the off-heap copy
+		 */
+		synchronized OffHeapPostings copy(PostingList list, byte[] norms) {
+			PostingList sorted = list.byDocument();
+			int bytes = 16*list.size();
+			if (current == null || current.remaining() < bytes) {
+				current = ByteBuffer.allocateDirect(Math.max(CHUNK, bytes));
+				chunks.add(current);
+			}
+			int offset = current.position();
+			for (int i = 0; i < list.size(); i++) {
+				current.putInt(list.doc(i));
+				current.putInt(list.freq(i));
+			}
+			for (int i = 0; i < sorted.size(); i++) {
+				current.putInt(sorted.doc(i));
+				current.putInt(sorted.freq(i));
+			}
+			return new OffHeapPostings(current, offset, list.size(), list.impacts(norms));
+		}
+
+		/**
+		 * Total off-heap memory allocated, in bytes.
+		 */
+		synchronized long allocated() {
+			long total = 0;
+			for (ByteBuffer chunk : chunks) {
+				total += chunk.capacity();
+			}
+			return total;
+		}
+	}
+
+	private final ByteBuffer chunk;
+	private final int offset;
+	private final int size;
+	private final BlockImpacts impacts;
+
+	private OffHeapPostings(ByteBuffer chunk, int offset, int size, BlockImpacts impacts) {
+		this.chunk = chunk;
+		this.offset = offset;
+		this.size = size;
+		this.impacts = impacts;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the impacts worked out when the list was copied into the arena.
+	 */
+	public BlockImpacts impacts(byte[] norms) {
+		return impacts;
+	}
+
+	/**
+	 * Returns a cursor over the postings, in descending order of frequencies.
+	 */
+	public PostingCursor cursor() {
+		return new PostingCursor() {
+			int at = offset - 8;
+			final int end = offset + 8*size;
+
+			public boolean next() {
+				at += 8;
+				return at < end;
+			}
+
+			public int doc() {
+				return chunk.getInt(at);
+			}
+
+			public int freq() {
+				return chunk.getInt(at + 4);
+			}
+		};
+	}
+
+	/**
+	 * Returns a cursor over the postings in document id order, read in place from their copy in
+	 * that order. It skips ahead by galloping search, as PostingList's document cursor does.
+	 */
+	public DocCursor docCursor() {
+		final int first = offset + 8*size;
+		return new DocCursor() {
+			int pos = -1;
+
+			public boolean next() {
+				return ++pos < size;
+			}
+
+			public int doc() {
+				return chunk.getInt(first + 8*pos);
+			}
+
+			public int freq() {
+				return chunk.getInt(first + 8*pos + 4);
+			}
+
+			public boolean advance(int target) {
+				if (pos >= 0 && (pos >= size || doc() >= target)) {
+					return pos < size;
+				}
+				// gallop to a range lo..hi that holds the first id >= target, then binary search it
+				int lo = pos + 1, step = 1, hi = lo;
+				while (hi < size && chunk.getInt(first + 8*hi) < target) {
+					lo = hi + 1;
+					hi += step;
+					step <<= 1;
+				}
+				hi = Math.min(hi, size);
+				while (lo < hi) {
+					int mid = (lo + hi) >>> 1;
+					if (chunk.getInt(first + 8*mid) < target) {
+						lo = mid + 1;
+					} else {
+						hi = mid;
+					}
+				}
+				pos = lo;
+				return pos < size;
+			}
+		};
+	}
+
+	public boolean documentOrder() {
+		return false;
+	}
+
+	/**
+	 * Copies the postings back onto the heap.
+	 */
+	public PostingList decode() {
+		return PostingList.copyOf(this);
+	}
+}
@@ -0,0 +1,140 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class is the private index of one worker thread in LittleSearchEngine.makeIndexFromPartials.
+ * The worker adds the keywords of its documents in increasing order of document ids, so each
+ * posting list is appended to in document order without any locking, and is sorted by frequency
+ * once, when the worker seals its index. The sealed partial indexes of all the workers are then
+ * combined by merging, for each keyword, the lists of the partials that have it.
+ *
+ * Document ids are those of the engine's DocumentTable, so a sealed partial index can also be
+ * saved as a segment file of its own, and loaded with LittleSearchEngine.load to search just
+ * the documents of that worker.
+ */
+class PartialIndex {
+
+	final HashMap<String,PostingList> index = new HashMap<String,PostingList>(1000, 2.0f);
+	private int lastDoc = -1;
+	private boolean sealed;
+
+	/**
+	 * Adds the keywords of one document.
+	 *
+	 * @param doc Document id
+	 * @param kws Keywords of the document, as returned by loadKeyWords
+	 * @throws IllegalStateException If the index is sealed, or the document does not come after
+	 *         the documents already added
+	 */
+	void add(int doc, HashMap<String,Occurrence> kws) {
+		if (sealed) {
+			throw new IllegalStateException("Partial index is sealed");
+		}
+		if (doc <= lastDoc) {
+			throw new IllegalStateException("Document " + doc + " added after " + lastDoc);
+		}
+		lastDoc = doc;
+		for (Map.Entry<String,Occurrence> e : kws.entrySet()) {
+			PostingList list = index.get(e.getKey());
+			if (list == null) {
+				list = new PostingList();
+				index.put(e.getKey(), list);
+			}
+			list.add(doc, e.getValue().frequency);
+		}
+	}
+
+	/**
+	 * Sorts every posting list in descending order of frequencies. Equal frequencies stay in
+	 * document id order.
+	 */
+	void seal() {
+		if (!sealed) {
+			for (PostingList list : index.values()) {
+				list.sortByFrequency();
+			}
+			sealed = true;
+		}
+	}
+
+	/**
+	 * Number of keywords.
+	 */
+	int size() {
+		return index.size();
+	}
+
+	/**
+	 * Returns the posting list of the given keyword.
+	 *
+	 * @param keyword Keyword
+	 * @return Posting list, or null if no document of this partial index has the keyword
+	 */
+	PostingList postings(String keyword) {
+		return index.get(keyword);
+	}
+
+	/**
+	 * Saves this partial index as a segment file.
+	 *
+	 * @param indexFile Name of the segment file
+	 * @param documents Names of all the engine's documents, by id
+	 * @param norms Norms of all the engine's documents, by id
+	 * @param totalLength Total length of the engine's documents
+	 * @param noiseWords Noise words
+	 * @throws IOException If the segment file cannot be written
+	 */
+	void save(String indexFile, List<String> documents, byte[] norms, long totalLength,
+			Collection<String> noiseWords)
+	throws IOException {
+		seal();
+		HashMap<String,CompressedPostings> packed = new HashMap<String,CompressedPostings>(index.size()*2);
+		for (Map.Entry<String,PostingList> e : index.entrySet()) {
+			packed.put(e.getKey(), CompressedPostings.encode(e.getValue(), norms));
+		}
+		IndexSegment.write(indexFile, packed, documents, norms, totalLength, noiseWords);
+	}
+
+	/**
+	 * Merges posting lists in descending order of frequencies into one list in the same order.
+	 * Equal frequencies are put in document id order, which is the order they would have if the
+	 * documents had all been merged into one list in id order. The lists must not share documents.
+	 *
+	 * @param lists Posting lists, each in descending order of frequencies with ties in id order
+	 * @param n Number of lists
+	 * @return Merged list, which is lists[0] if n is 1
+	 */
+	static PostingList merge(PostingList[] lists, int n) {
+		if (n == 1) {
+			return lists[0];
+		}
+		int total = 0;
+		for (int i = 0; i < n; i++) {
+			total += lists[i].size();
+		}
+		PostingList merged = new PostingList(total);
+		// there are only as many lists as workers, so the next posting is found by a scan
+		int[] at = new int[n];
+		for (int m = 0; m < total; m++) {
+			int best = -1;
+			for (int i = 0; i < n; i++) {
+				if (at[i] == lists[i].size()) {
+					continue;
+				}
+				if (best < 0) {
+					best = i;
+					continue;
+				}
+				int f = lists[i].freq(at[i]), bf = lists[best].freq(at[best]);
+				if (f > bf || f == bf && lists[i].doc(at[i]) < lists[best].doc(at[best])) {
+					best = i;
+				}
+			}
+			merged.add(lists[best].doc(at[best]), lists[best].freq(at[best]));
+			at[best]++;
+		}
+		return merged;
+	}
+}
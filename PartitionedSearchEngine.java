@@ -0,0 +1,195 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class is a search engine whose documents are partitioned across a number of independent
+ * LittleSearchEngine shards, round robin in the order they are listed. Every shard indexes only
+ * its own documents, so it has its own, smaller keywordsIndex, and the shards are built without
+ * sharing anything but the noise words. Document ids are global: every shard's DocumentTable
+ * holds all the documents, in listing order, so results from different shards can be compared.
+ *
+ * A search is sent to every shard at once. Each shard returns its own top k documents, with the
+ * frequency and keyword rank each was ranked by, and the coordinator merges these into the
+ * global top k. Since each document is on one shard only, this gives the same result as a single
+ * LittleSearchEngine with all the documents.
+ */
+public class PartitionedSearchEngine {
+
+	/**
+	 * The shards. The document with id d is indexed by shards[d % shards.length].
+	 */
+	final LittleSearchEngine[] shards;
+
+	private final ExecutorService pool;
+
+	/**
+	 * Creates an empty engine with the given number of shards, and a pool of as many threads
+	 * to work on them.
+	 *
+	 * @param shardCount Number of shards
+	 */
+	public PartitionedSearchEngine(int shardCount) {
+		if (shardCount < 1) {
+			throw new IllegalArgumentException("Shard count must be at least 1");
+		}
+		shards = new LittleSearchEngine[shardCount];
+		for (int s = 0; s < shardCount; s++) {
+			shards[s] = new LittleSearchEngine();
+		}
+		pool = Executors.newFixedThreadPool(shardCount, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "partition");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Indexes all keywords found in all the input documents. Every shard indexes its own
+	 * documents, in id order and on a thread of its own, with a bulk load. A document listed
+	 * more than once is only indexed once.
+	 *
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 * @throws IllegalStateException If documents have already been indexed
+	 */
+	public void makeIndex(String docsFile, final String noiseWordsFile)
+	throws FileNotFoundException {
+		if (shards[0].documents.size() > 0) {
+			throw new IllegalStateException("Documents have already been indexed");
+		}
+		final ArrayList<String> docs = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(docsFile));
+		while (sc.hasNext()) {
+			String doc = sc.next();
+			// global ids, the same on every shard
+			if (shards[0].documents.id(doc) < 0) {
+				for (LittleSearchEngine shard : shards) {
+					shard.documents.add(doc);
+				}
+				docs.add(doc);
+			}
+		}
+
+		ArrayList<Future<Void>> builds = new ArrayList<Future<Void>>(shards.length);
+		for (int s = 0; s < shards.length; s++) {
+			final int shard = s;
+			builds.add(pool.submit(new Callable<Void>() {
+				public Void call()
+				throws FileNotFoundException {
+					LittleSearchEngine engine = shards[shard];
+					engine.loadNoiseWords(noiseWordsFile);
+					engine.bulkLoad();
+					for (int d = shard; d < docs.size(); d += shards.length) {
+						engine.mergeKeyWords(engine.loadKeyWords(docs.get(d)));
+					}
+					engine.seal();
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> build : builds) {
+			await(build);
+		}
+	}
+
+	/**
+	 * Search result for "kw1 or kw2", as LittleSearchEngine.top5search.
+	 *
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @return List of NAMES of at most 5 documents in which either kw1 or kw2 occurs, arranged in
+	 *         descending order of frequencies
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2) {
+		return topK(5, kw1, kw2);
+	}
+
+	/**
+	 * Search result for "kw1 or kw2 or ...", ranked as by LittleSearchEngine.topK. The top k
+	 * documents of every shard are found at the same time, one shard on the calling thread and
+	 * the others on the shard threads, and then merged.
+	 *
+	 * @param k Maximum number of documents in the result
+	 * @param keywords Keywords to search for, in order of preference for breaking ties
+	 * @return List of NAMES of documents in which any of the keywords occurs, arranged in descending
+	 *         order of frequencies. The result size is limited to k documents.
+	 */
+	public ArrayList<String> topK(final int k, final String... keywords) {
+		ArrayList<String> fin = new ArrayList<String>();
+		if (k <= 0) {
+			return fin;
+		}
+		ArrayList<Future<TopHits>> searches = new ArrayList<Future<TopHits>>(shards.length);
+		for (int s = 1; s < shards.length; s++) {
+			final LittleSearchEngine shard = shards[s];
+			searches.add(pool.submit(new Callable<TopHits>() {
+				public TopHits call() {
+					return shard.topHits(k, keywords);
+				}
+			}));
+		}
+		ArrayList<TopHits> parts = new ArrayList<TopHits>(shards.length);
+		parts.add(shards[0].topHits(k, keywords));
+		for (Future<TopHits> search : searches) {
+			try {
+				parts.add(await(search));
+			} catch (FileNotFoundException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		TopHits hits = TopHits.merge(k, parts);
+		for (int i = 0; i < hits.size; i++) {
+			fin.add(shards[0].documents.name(hits.docs[i]));
+		}
+		return fin;
+	}
+
+	/**
+	 * Number of keywords on each shard.
+	 */
+	int[] shardSizes() {
+		int[] sizes = new int[shards.length];
+		for (int s = 0; s < shards.length; s++) {
+			sizes[s] = shards[s].keywordsIndex.size();
+		}
+		return sizes;
+	}
+
+	/**
+	 * Stops the shard threads. The engine can not be used after this.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Waits for a task, and returns its result or throws what it threw.
+	 */
+	private static <T> T await(Future<T> task)
+	throws FileNotFoundException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof FileNotFoundException) {
+				throw (FileNotFoundException)cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+}
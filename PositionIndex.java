@@ -0,0 +1,184 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class records where in each document every keyword occurs, for phrase queries. The
+ * position of a word is the number of words (of any kind, noise words included) before it in
+ * its document. For each keyword there is a list of the documents it occurs in, in document id
+ * order, and for each document the positions of the keyword, stored as variable-byte gaps from
+ * the previous position in one byte array per keyword.
+ */
+class PositionIndex {
+
+	/**
+	 * The documents and positions of one keyword.
+	 */
+	static class Positions {
+
+		int[] docs = new int[2];
+		int[] offsets = new int[2];
+		int[] counts = new int[2];
+		final VarInt data = new VarInt(8);
+		int size;
+
+		/**
+		 * Appends the positions of the keyword in a document that comes after all the documents
+		 * already in the list.
+		 */
+		void add(int doc, VarInt gaps, int count) {
+			if (size == docs.length) {
+				docs = Arrays.copyOf(docs, size*2);
+				offsets = Arrays.copyOf(offsets, size*2);
+				counts = Arrays.copyOf(counts, size*2);
+			}
+			docs[size] = doc;
+			offsets[size] = data.length;
+			counts[size] = count;
+			data.writeBytes(gaps.bytes, 0, gaps.length);
+			size++;
+		}
+
+		/**
+		 * Returns the index of the given document in the list, or -1 if it is not in it.
+		 */
+		int find(int doc) {
+			int i = Arrays.binarySearch(docs, 0, size, doc);
+			return i < 0 ? -1 : i;
+		}
+
+		/**
+		 * Returns the positions of the keyword in the i-th document of the list, in increasing order.
+		 */
+		int[] positions(int i) {
+			int[] positions = new int[counts[i]];
+			byte[] b = data.bytes;
+			int at = offsets[i], p = 0;
+			for (int j = 0; j < positions.length; j++) {
+				long r = VarInt.read(b, at);
+				at = (int)r;
+				p += (int)(r >>> 32);
+				positions[j] = p;
+			}
+			return positions;
+		}
+
+		/**
+		 * Memory used by the arrays, in bytes.
+		 */
+		long bytes() {
+			return 12L*docs.length + data.bytes.length;
+		}
+	}
+
+	final HashMap<String,Positions> index = new HashMap<String,Positions>(1000, 2.0f);
+
+	/**
+	 * Records the positions of a keyword in a document.
+	 *
+	 * @param keyword Keyword
+	 * @param doc Document id, larger than the ids of all the documents recorded for the keyword
+	 *        (a document that is recorded again is ignored)
+	 * @param gaps Positions of the keyword in the document, as variable-byte gaps
+	 * @param count Number of positions
+	 * @throws IllegalStateException If the document comes before the last one recorded
+	 */
+	void add(String keyword, int doc, VarInt gaps, int count) {
+		Positions list = index.get(keyword);
+		if (list == null) {
+			list = new Positions();
+			index.put(keyword, list);
+		} else if (doc <= list.docs[list.size - 1]) {
+			if (doc == list.docs[list.size - 1]) {
+				return;
+			}
+			throw new IllegalStateException("Document " + doc + " recorded after " + list.docs[list.size - 1]);
+		}
+		list.add(doc, gaps, count);
+	}
+
+	/**
+	 * Returns the documents and positions of the given keyword, or null if it is not recorded.
+	 */
+	Positions get(String keyword) {
+		return index.get(keyword);
+	}
+
+	/**
+	 * Memory used by all the position lists, in bytes, not counting the hash table.
+	 */
+	long bytes() {
+		long bytes = 0;
+		for (Positions list : index.values()) {
+			bytes += list.bytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Counts the occurrences of a phrase in each document that has all its keywords, and returns
+	 * the best k documents.
+	 *
+	 * @param k Maximum number of documents in the result
+	 * @param lists Positions of each keyword of the phrase
+	 * @param offsets Position of each keyword in the phrase, in the same order (noise words in
+	 *        the phrase leave gaps)
+	 * @return Documents with the phrase, with the most occurrences first (ties in id order),
+	 *         each with its number of occurrences as frequency
+	 */
+	static TopHits phrase(int k, Positions[] lists, int[] offsets) {
+		// the rarest keyword picks the candidate documents
+		int lead = 0;
+		for (int j = 1; j < lists.length; j++) {
+			if (lists[j].size < lists[lead].size) {
+				lead = j;
+			}
+		}
+		int cap = Math.min(k, lists[lead].size);
+		int[] topDoc = new int[cap], topCount = new int[cap];
+		int n = 0;
+		int[] at = new int[lists.length];
+		int[][] positions = new int[lists.length][];
+		for (int i = 0; i < lists[lead].size; i++) {
+			int doc = lists[lead].docs[i];
+			boolean all = true;
+			for (int j = 0; j < lists.length && all; j++) {
+				at[j] = j == lead ? i : lists[j].find(doc);
+				all = at[j] >= 0;
+			}
+			if (!all) {
+				continue;
+			}
+			for (int j = 0; j < lists.length; j++) {
+				positions[j] = lists[j].positions(at[j]);
+			}
+			int count = 0;
+			for (int p : positions[0]) {
+				int start = p - offsets[0];
+				boolean match = true;
+				for (int j = 1; j < lists.length && match; j++) {
+					match = Arrays.binarySearch(positions[j], start + offsets[j]) >= 0;
+				}
+				if (match) {
+					count++;
+				}
+			}
+			if (count == 0 || n == cap && count <= topCount[n-1]) {
+				continue;
+			}
+			int pos = n < cap ? n++ : n - 1;
+			while (pos > 0 && count > topCount[pos-1]) {
+				topDoc[pos] = topDoc[pos-1];
+				topCount[pos] = topCount[pos-1];
+				pos--;
+			}
+			topDoc[pos] = doc;
+			topCount[pos] = count;
+		}
+		TopHits hits = new TopHits(n);
+		for (int i = 0; i < n; i++) {
+			hits.add(topDoc[i], topCount[i], 0);
+		}
+		return hits;
+	}
+}
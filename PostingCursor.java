@@ -0,0 +1,25 @@
+package search;
+
+/**
+ * A cursor over the postings (document id, frequency pairs) of one keyword. A cursor starts
+ * before the first posting, so next must be called to get to it.
+ */
+interface PostingCursor {
+
+	/**
+	 * Moves to the next posting.
+	 *
+	 * @return False if there are no more postings
+	 */
+	boolean next();
+
+	/**
+	 * Id of the document at the current posting.
+	 */
+	int doc();
+
+	/**
+	 * Frequency of the keyword in the document at the current posting.
+	 */
+	int freq();
+}
@@ -0,0 +1,360 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class is the list of occurrences of one keyword, kept as parallel growable arrays of
+ * document ids and frequencies instead of Occurrence objects. In the keywordsIndex, a posting
+ * list is in descending order of frequencies.
+ */
+class PostingList implements Postings {
+
+	int[] docs;
+	int[] freqs;
+	int size;
+	
+	/**
+	 * Set when postings have been appended out of frequency order, during a bulk load.
+	 */
+	boolean unsorted;
+
+	/**
+	 * Copy of this list in document id order, made by the first docCursor since the list was
+	 * last changed, or null.
+	 */
+	private volatile PostingList docOrder;
+
+	/**
+	 * Impacts of the list (see BlockImpacts), worked out when the list is sealed or first
+	 * searched, and kept up to date as documents are added at the end; null if they have not
+	 * been worked out since the list was last changed otherwise.
+	 */
+	private volatile BlockImpacts impacts;
+
+	/**
+	 * Creates an empty posting list.
+	 */
+	PostingList() {
+		this(4);
+	}
+
+	/**
+	 * Creates an empty posting list with room for the given number of postings.
+	 *
+	 * @param capacity Initial capacity
+	 */
+	PostingList(int capacity) {
+		docs = new int[Math.max(1, capacity)];
+		freqs = new int[docs.length];
+	}
+
+	/**
+	 * Creates a copy of the given posting list.
+	 *
+	 * @param other Posting list to copy
+	 * @param extra Room for more postings to leave in the copy
+	 */
+	PostingList(PostingList other, int extra) {
+		this(other.size + extra);
+		System.arraycopy(other.docs, 0, docs, 0, other.size);
+		System.arraycopy(other.freqs, 0, freqs, 0, other.size);
+		size = other.size;
+		BlockImpacts kept = other.impacts;
+		impacts = kept == null ? null : kept.copy();
+	}
+
+	/**
+	 * Number of postings.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Document id of the i-th posting.
+	 */
+	int doc(int i) {
+		return docs[i];
+	}
+
+	/**
+	 * Frequency of the i-th posting.
+	 */
+	int freq(int i) {
+		return freqs[i];
+	}
+
+	/**
+	 * Appends a posting at the end of the list.
+	 *
+	 * @param doc Document id
+	 * @param freq Frequency
+	 */
+	void add(int doc, int freq) {
+		docOrder = null;
+		impacts = null;
+		if (size == docs.length) {
+			grow(size + 1);
+		}
+		docs[size] = doc;
+		freqs[size] = freq;
+		size++;
+	}
+
+	/**
+	 * Appends a posting at the end of the list, keeping the list's impacts up to date if it has
+	 * them and the document comes after every document in the list, as a new document does.
+	 *
+	 * @param doc Document id
+	 * @param freq Frequency
+	 * @param norms Document norms
+	 */
+	void add(int doc, int freq, byte[] norms) {
+		BlockImpacts kept = impacts;
+		add(doc, freq);
+		if (kept != null && doc > kept.lastDoc()) {
+			kept.add(doc, freq, norms);
+			impacts = kept;
+		}
+	}
+
+	/**
+	 * Appends all the postings of another list at the end of this list.
+	 *
+	 * @param other Posting list to append
+	 */
+	void addAll(PostingList other) {
+		docOrder = null;
+		impacts = null;
+		if (size + other.size > docs.length) {
+			grow(size + other.size);
+		}
+		System.arraycopy(other.docs, 0, docs, size, other.size);
+		System.arraycopy(other.freqs, 0, freqs, size, other.size);
+		size += other.size;
+	}
+
+	/**
+	 * Moves the last posting to its place in descending order of frequencies, by binary search
+	 * over postings 0..n-2, which must already be in that order. The search stops at the first
+	 * posting it finds with the same frequency, and the posting goes right after that one.
+	 *
+	 * @param mids If not null, the mid points checked by the binary search are added to it
+	 */
+	void insertLast(ArrayList<Integer> mids) {
+		docOrder = null;
+		int last = size - 1;
+		int doc = docs[last], item = freqs[last];
+		int lo = 0, hi = last - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi)/2;
+			if (mids != null) {
+				mids.add(mid);
+			}
+			if (freqs[mid] == item) {
+				lo = mid + 1;
+				break;
+			} else if (freqs[mid] < item) {
+				hi = mid - 1;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		System.arraycopy(docs, lo, docs, lo + 1, last - lo);
+		System.arraycopy(freqs, lo, freqs, lo + 1, last - lo);
+		docs[lo] = doc;
+		freqs[lo] = item;
+	}
+
+	/**
+	 * Puts the postings in descending order of frequencies with a single stable sort, so
+	 * postings with equal frequencies stay in the order in which they were added.
+	 */
+	void sortByFrequency() {
+		unsorted = false;
+		docOrder = null;
+		int i = 1;
+		while (i < size && freqs[i-1] >= freqs[i]) {
+			i++;
+		}
+		if (i >= size) {
+			return;
+		}
+		// frequency (descending) in the high half, position in the low half
+		long[] keys = new long[size];
+		for (i = 0; i < size; i++) {
+			keys[i] = ((long)~freqs[i] << 32) | i;
+		}
+		Arrays.sort(keys);
+		int[] ndocs = new int[docs.length], nfreqs = new int[freqs.length];
+		for (i = 0; i < size; i++) {
+			int from = (int)keys[i];
+			ndocs[i] = docs[from];
+			nfreqs[i] = freqs[from];
+		}
+		docs = ndocs;
+		freqs = nfreqs;
+	}
+
+	/**
+	 * Returns a copy of this list sorted by document id. Postings with the same document id
+	 * stay in list order.
+	 */
+	PostingList byDocument() {
+		PostingList sorted = new PostingList(size);
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = ((long)docs[i] << 32) | i;
+		}
+		Arrays.sort(keys);
+		for (int i = 0; i < size; i++) {
+			int from = (int)keys[i];
+			sorted.add(docs[from], freqs[from]);
+		}
+		return sorted;
+	}
+
+	/**
+	 * Returns a cursor over the postings, in list order.
+	 */
+	public PostingCursor cursor() {
+		return new PostingCursor() {
+			int pos = -1;
+
+			public boolean next() {
+				return ++pos < size;
+			}
+
+			public int doc() {
+				return docs[pos];
+			}
+
+			public int freq() {
+				return freqs[pos];
+			}
+		};
+	}
+
+	/**
+	 * Returns a cursor in document id order, which skips ahead by galloping (exponential) search.
+	 * The list is copied in document id order the first time, and the copy is kept until the
+	 * list is changed.
+	 */
+	public DocCursor docCursor() {
+		PostingList sorted = docOrder;
+		if (sorted == null) {
+			sorted = byDocument();
+			docOrder = sorted;
+		}
+		final int[] ids = sorted.docs, fs = sorted.freqs;
+		final int n = sorted.size;
+		return new DocCursor() {
+			int pos = -1;
+
+			public boolean next() {
+				return ++pos < n;
+			}
+
+			public int doc() {
+				return ids[pos];
+			}
+
+			public int freq() {
+				return fs[pos];
+			}
+
+			public boolean advance(int target) {
+				if (pos >= 0 && (pos >= n || ids[pos] >= target)) {
+					return pos < n;
+				}
+				// gallop to a range lo..hi that holds the first id >= target, then binary search it
+				int lo = pos + 1, step = 1, hi = lo;
+				while (hi < n && ids[hi] < target) {
+					lo = hi + 1;
+					hi += step;
+					step <<= 1;
+				}
+				hi = Math.min(hi, n);
+				while (lo < hi) {
+					int mid = (lo + hi) >>> 1;
+					if (ids[mid] < target) {
+						lo = mid + 1;
+					} else {
+						hi = mid;
+					}
+				}
+				pos = lo;
+				return pos < n;
+			}
+		};
+	}
+
+	/**
+	 * A posting list is in descending order of frequencies.
+	 */
+	public boolean documentOrder() {
+		return false;
+	}
+
+	/**
+	 * Returns the impacts of the list, working them out from the norms if the list does not have
+	 * them yet. A list that was appended to in document id order, as during a bulk load, is read
+	 * as it is; any other list is copied in that order first.
+	 */
+	public BlockImpacts impacts(byte[] norms) {
+		BlockImpacts kept = impacts;
+		if (kept == null) {
+			PostingList sorted = docOrder;
+			if (sorted == null) {
+				sorted = this;
+				for (int i = 1; i < size && sorted == this; i++) {
+					if (docs[i-1] > docs[i]) {
+						sorted = byDocument();
+					}
+				}
+			}
+			kept = BlockImpacts.of(sorted, norms);
+			impacts = kept;
+		}
+		return kept;
+	}
+
+	/**
+	 * Returns this list.
+	 */
+	public PostingList decode() {
+		return this;
+	}
+
+	/**
+	 * Returns a posting list with the given postings, in cursor order.
+	 *
+	 * @param postings Postings to copy
+	 * @return New posting list
+	 */
+	static PostingList copyOf(Postings postings) {
+		PostingList list = new PostingList(postings.size());
+		PostingCursor c = postings.cursor();
+		while (c.next()) {
+			list.add(c.doc(), c.freq());
+		}
+		return list;
+	}
+
+	private void grow(int min) {
+		int cap = Math.max(min, docs.length + (docs.length >> 1));
+		docs = Arrays.copyOf(docs, cap);
+		freqs = Arrays.copyOf(freqs, cap);
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < size; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append('(').append(docs[i]).append(',').append(freqs[i]).append(')');
+		}
+		return sb.append(']').toString();
+	}
+}
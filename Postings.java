@@ -0,0 +1,42 @@
+package search;
+
+/**
+ * The postings of one keyword, in whatever form they are stored. A cursor goes through them
+ * either in descending order of frequencies or in document id order.
+ */
+interface Postings {
+
+	/**
+	 * Number of postings.
+	 */
+	int size();
+
+	/**
+	 * Returns a cursor over the postings.
+	 */
+	PostingCursor cursor();
+
+	/**
+	 * Returns a cursor over the postings in document id order, which can skip ahead.
+	 */
+	DocCursor docCursor();
+
+	/**
+	 * Tells whether cursors go in document id order, rather than descending order of frequencies.
+	 */
+	boolean documentOrder();
+
+	/**
+	 * Returns the impacts of the postings (see BlockImpacts). Lists that keep them with their
+	 * postings return those, and the norms are only read by lists that have to work them out.
+	 *
+	 * @param norms Document norms
+	 */
+	BlockImpacts impacts(byte[] norms);
+
+	/**
+	 * Returns the postings as a posting list in descending order of frequencies. The list may
+	 * be these postings themselves, so it must be copied before it is changed.
+	 */
+	PostingList decode();
+}
@@ -0,0 +1,223 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class caches search results, by query, up to a budget of bytes. Each result is kept with
+ * the generation of the index it was computed from (see LittleSearchEngine.generation), and is
+ * only handed back while the index is still at that generation, so a result is never served
+ * after the index has changed. The cache is split into stripes by the hash code of the query,
+ * each with its own lock and an equal share of the budget, and each stripe evicts its least
+ * recently used results first. It is safe for use by several threads.
+ */
+public class QueryCache {
+
+	/**
+	 * A cached result, with the index generation it was computed from.
+	 */
+	private static class Entry {
+		final ArrayList<String> result;
+		final long generation;
+		final long bytes;
+
+		Entry(String query, ArrayList<String> result, long generation) {
+			this.result = result;
+			this.generation = generation;
+			bytes = bytes(query, result);
+		}
+	}
+
+	/**
+	 * One part of the cache: results in least recently used order, first to last.
+	 */
+	private static class Stripe {
+		final LinkedHashMap<String,Entry> entries = new LinkedHashMap<String,Entry>(64, 0.75f, true);
+		long bytes;
+		long hits, misses, stale, evictions;
+	}
+
+	private final Stripe[] stripes;
+	private final long stripeBytes;
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param maxBytes Estimated size the results may take up, in all
+	 * @param stripes Number of stripes (at least 1)
+	 */
+	QueryCache(long maxBytes, int stripes) {
+		this.stripes = new Stripe[stripes];
+		for (int s = 0; s < stripes; s++) {
+			this.stripes[s] = new Stripe();
+		}
+		stripeBytes = maxBytes/stripes;
+	}
+
+	/**
+	 * Returns a copy of the cached result of a query, if it was computed at the given index
+	 * generation. A result from another generation is dropped.
+	 *
+	 * @param query Query, as made by LittleSearchEngine.query
+	 * @param generation Current index generation
+	 * @return Result, or null if it is not cached
+	 */
+	ArrayList<String> get(String query, long generation) {
+		Stripe stripe = stripe(query);
+		synchronized (stripe) {
+			Entry entry = stripe.entries.get(query);
+			if (entry != null && entry.generation != generation) {
+				stripe.entries.remove(query);
+				stripe.bytes -= entry.bytes;
+				stripe.stale++;
+				entry = null;
+			}
+			if (entry == null) {
+				stripe.misses++;
+				return null;
+			}
+			stripe.hits++;
+			return new ArrayList<String>(entry.result);
+		}
+	}
+
+	/**
+	 * Caches the result of a query, evicting the least recently used results of its stripe to
+	 * make room. A result bigger than the stripe's share of the budget is not cached.
+	 *
+	 * @param query Query, as made by LittleSearchEngine.query
+	 * @param generation Index generation the result was computed from
+	 * @param result Result, which is copied
+	 */
+	void put(String query, long generation, ArrayList<String> result) {
+		Entry entry = new Entry(query, new ArrayList<String>(result), generation);
+		if (entry.bytes > stripeBytes) {
+			return;
+		}
+		Stripe stripe = stripe(query);
+		synchronized (stripe) {
+			Entry old = stripe.entries.put(query, entry);
+			if (old != null) {
+				stripe.bytes -= old.bytes;
+			}
+			stripe.bytes += entry.bytes;
+			Iterator<Entry> lru = stripe.entries.values().iterator();
+			while (stripe.bytes > stripeBytes) {
+				Entry evicted = lru.next();
+				lru.remove();
+				stripe.bytes -= evicted.bytes;
+				stripe.evictions++;
+			}
+		}
+	}
+
+	/**
+	 * Drops all cached results.
+	 */
+	public void clear() {
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				stripe.entries.clear();
+				stripe.bytes = 0;
+			}
+		}
+	}
+
+	/**
+	 * Number of lookups that found a result.
+	 */
+	public long hits() {
+		long n = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				n += stripe.hits;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Number of lookups that did not find a result, including those that found a stale one.
+	 */
+	public long misses() {
+		long n = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				n += stripe.misses;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Number of results dropped because the index had changed since they were computed.
+	 */
+	public long stale() {
+		long n = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				n += stripe.stale;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Number of results evicted to make room for others.
+	 */
+	public long evictions() {
+		long n = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				n += stripe.evictions;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Number of results cached.
+	 */
+	public int size() {
+		int n = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				n += stripe.entries.size();
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Estimated size of the results cached, in bytes.
+	 */
+	public long bytes() {
+		long n = 0;
+		for (Stripe stripe : stripes) {
+			synchronized (stripe) {
+				n += stripe.bytes;
+			}
+		}
+		return n;
+	}
+
+	public String toString() {
+		long hits = hits(), misses = misses();
+		return String.format("%d hits, %d misses (%.1f%% hit), %d stale, %d evicted, %d results, %d bytes",
+				hits, misses, hits + misses == 0 ? 0.0 : 100.0*hits/(hits + misses), stale(), evictions(),
+				size(), bytes());
+	}
+
+	private Stripe stripe(String query) {
+		int h = query.hashCode();
+		h ^= h >>> 16;
+		return stripes[(h & 0x7fffffff) % stripes.length];
+	}
+
+	/**
+	 * Estimated size of a cached result: the map entry, the query string and the list, whose
+	 * document names are shared with the document table.
+	 */
+	private static long bytes(String query, ArrayList<String> result) {
+		return 160 + 2L*query.length() + 4L*result.size();
+	}
+}
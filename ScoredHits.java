@@ -0,0 +1,108 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class collects the k best documents of a scored search. Documents are ranked by
+ * descending score, with ties going to the lower document id. While documents are offered, the
+ * ones kept are a heap with the worst of them first, so the score a document needs to get in is
+ * always at hand; sort puts them in order, best first, when the search is done.
+ */
+class ScoredHits {
+
+	final int k;
+	int[] docs;
+	float[] scores;
+	int size;
+
+	/**
+	 * Creates an empty result for the best k documents.
+	 *
+	 * @param k Maximum number of documents in the result, at least 1
+	 */
+	ScoredHits(int k) {
+		this.k = k;
+		docs = new int[Math.min(k, 64)];
+		scores = new float[docs.length];
+	}
+
+	/**
+	 * Returns the score a document with a higher id than all those offered so far has to beat
+	 * to get in: the worst score kept once there are k documents, and 0 before that.
+	 */
+	float threshold() {
+		return size < k ? 0 : scores[0];
+	}
+
+	/**
+	 * Offers a document, which is kept if it ranks before the worst of the k documents kept.
+	 *
+	 * @param doc Document id
+	 * @param score Score of the document
+	 * @return True if the document was kept
+	 */
+	boolean offer(int doc, float score) {
+		if (size < k) {
+			if (size == docs.length) {
+				int cap = Math.min(k, size*2);
+				docs = Arrays.copyOf(docs, cap);
+				scores = Arrays.copyOf(scores, cap);
+			}
+			int i = size++;
+			while (i > 0) {
+				int parent = (i - 1)/2;
+				if (!worse(doc, score, docs[parent], scores[parent])) {
+					break;
+				}
+				docs[i] = docs[parent];
+				scores[i] = scores[parent];
+				i = parent;
+			}
+			docs[i] = doc;
+			scores[i] = score;
+			return true;
+		}
+		if (!worse(docs[0], scores[0], doc, score)) {
+			return false;
+		}
+		siftDown(0, size, doc, score);
+		return true;
+	}
+
+	/**
+	 * Puts the documents in order, best first. No documents can be offered after this.
+	 */
+	void sort() {
+		for (int n = size - 1; n > 0; n--) {
+			int doc = docs[n];
+			float score = scores[n];
+			docs[n] = docs[0];
+			scores[n] = scores[0];
+			siftDown(0, n, doc, score);
+		}
+	}
+
+	private void siftDown(int i, int n, int doc, float score) {
+		while (true) {
+			int child = 2*i + 1;
+			if (child >= n) {
+				break;
+			}
+			if (child + 1 < n && worse(docs[child + 1], scores[child + 1], docs[child], scores[child])) {
+				child++;
+			}
+			if (!worse(docs[child], scores[child], doc, score)) {
+				break;
+			}
+			docs[i] = docs[child];
+			scores[i] = scores[child];
+			i = child;
+		}
+		docs[i] = doc;
+		scores[i] = score;
+	}
+
+	private static boolean worse(int doc1, float score1, int doc2, float score2) {
+		return score1 < score2 || score1 == score2 && doc1 > doc2;
+	}
+}
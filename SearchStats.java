@@ -0,0 +1,43 @@
+package search;
+
+/**
+ * This class counts the work done by searches: how many posting lists were looked at, how
+ * many postings they held, and how many of those postings were actually read. The rest were
+ * skipped because the search could stop early. The counts add up over all the searches a
+ * SearchStats is passed to; it is not safe for use by several threads at once.
+ */
+public class SearchStats {
+
+	/**
+	 * Number of searches.
+	 */
+	public long searches;
+
+	/**
+	 * Number of posting lists of the keywords searched for (keywords that are not in the index
+	 * have none).
+	 */
+	public long lists;
+
+	/**
+	 * Number of postings in those lists.
+	 */
+	public long postings;
+
+	/**
+	 * Number of postings that were read.
+	 */
+	public long read;
+
+	/**
+	 * Number of postings that were not read.
+	 */
+	public long skipped() {
+		return postings - read;
+	}
+
+	public String toString() {
+		return String.format("%d searches, %d lists, %d postings, %d read, %d skipped (%.1f%%)",
+				searches, lists, postings, read, skipped(), postings == 0 ? 0.0 : 100.0*skipped()/postings);
+	}
+}
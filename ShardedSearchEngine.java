@@ -0,0 +1,464 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class is a search engine whose keywords are partitioned across a number of
+ * LittleSearchEngine shards by the hash code of the keyword. Every shard holds the complete
+ * posting lists of its own keywords, so a keyword is always looked up on exactly one shard.
+ * The shards share one DocumentTable, so document ids mean the same thing on every shard, and
+ * the same noise words.
+ *
+ * Shards are built independently of each other: each document's keywords are split by shard
+ * as soon as the document is tokenized, and every shard bulk loads its parts in document order
+ * (see Build). After that, the shards are in concurrent mode (see
+ * LittleSearchEngine.concurrentIndex), so documents can be merged while the engine is searched,
+ * with no lock on any shard. A search looks up each keyword on its shard, on all the
+ * shards involved at once, and then ranks the documents exactly as a single LittleSearchEngine
+ * with the same documents would.
+ */
+public class ShardedSearchEngine {
+
+	/**
+	 * The shards. Keyword kw is in shards[shardOf(kw)].
+	 */
+	final LittleSearchEngine[] shards;
+
+	/**
+	 * Names of all indexed documents, by document id, shared by all the shards.
+	 */
+	final DocumentTable documents;
+
+	private final ExecutorService pool;
+
+	/**
+	 * Creates an empty engine with the given number of shards, and a pool of as many threads
+	 * to work on them.
+	 *
+	 * @param shardCount Number of shards
+	 */
+	public ShardedSearchEngine(int shardCount) {
+		if (shardCount < 1) {
+			throw new IllegalArgumentException("Shard count must be at least 1");
+		}
+		documents = new DocumentTable();
+		shards = new LittleSearchEngine[shardCount];
+		for (int s = 0; s < shardCount; s++) {
+			shards[s] = newShard();
+			shards[s].concurrentIndex();
+		}
+		pool = Executors.newFixedThreadPool(shardCount, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "shard");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Returns the shard that holds the given keyword.
+	 *
+	 * @param keyword Keyword
+	 * @return Index of the shard
+	 */
+	int shardOf(String keyword) {
+		return (keyword.hashCode() & 0x7fffffff) % shards.length;
+	}
+
+	/**
+	 * Indexes all keywords found in all the input documents. The documents are tokenized on the
+	 * shard threads, and each shard bulk loads the keywords it owns, in document order, so every
+	 * shard ends up with exactly the posting lists that the serial LittleSearchEngine.makeIndex
+	 * would build for its keywords. This must be called before the engine is shared with other
+	 * threads.
+	 *
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 * @throws IllegalStateException If documents have already been indexed
+	 */
+	public void makeIndex(String docsFile, String noiseWordsFile)
+	throws FileNotFoundException {
+		if (documents.size() > 0) {
+			throw new IllegalStateException("Documents have already been indexed");
+		}
+		// shards are rebuilt out of concurrent mode, so they can be bulk loaded
+		for (int s = 0; s < shards.length; s++) {
+			shards[s] = newShard();
+			shards[s].loadNoiseWords(noiseWordsFile);
+		}
+		ArrayList<String> docs = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(docsFile));
+		while (sc.hasNext()) {
+			String doc = sc.next();
+			docs.add(doc);
+			// ids are given out in document order, as with the serial build
+			documents.add(doc);
+		}
+
+		for (LittleSearchEngine shard : shards) {
+			shard.bulkLoad();
+		}
+		final Build build = new Build();
+		for (int d = 0; d < docs.size(); d++) {
+			build.acquire(1);
+			if (build.failure != null) {
+				break;
+			}
+			final int doc = d;
+			final String name = docs.get(d);
+			pool.execute(new Runnable() {
+				public void run() {
+					if (build.failure != null) {
+						return;
+					}
+					try {
+						DocumentKeywords kws = shards[0].loadKeyWords(name);
+						shards[0].register(kws);
+						build.add(doc, split(kws));
+					} catch (Throwable e) {
+						build.fail(e);
+					}
+				}
+			});
+		}
+		build.acquire(Build.WINDOW);
+		build.rethrow();
+
+		ArrayList<Future<Void>> seals = new ArrayList<Future<Void>>(shards.length);
+		for (final LittleSearchEngine shard : shards) {
+			seals.add(pool.submit(new Callable<Void>() {
+				public Void call() {
+					shard.seal();
+					shard.concurrentIndex();
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> seal : seals) {
+			await(seal);
+		}
+	}
+
+	/**
+	 * State of a makeIndex in progress. Documents are tokenized on the shard threads in any
+	 * order, and the thread that tokenizes a document hands each shard its part. Each shard
+	 * merges the parts in document order: a part that comes before its turn is left in a window
+	 * of documents in flight, and merged by whichever thread brings the part the shard is
+	 * waiting for. No thread ever waits for a shard, so the build does not depend on the order
+	 * in which the pool runs tasks. Only WINDOW documents are tokenized ahead of the shard that
+	 * is furthest behind, so the parts held at any time do not grow with the number of documents.
+	 */
+	private class Build {
+
+		static final int WINDOW = 64;
+
+		/**
+		 * Document d, at d % WINDOW, until every shard has merged its part.
+		 */
+		final AtomicReferenceArray<Parts> parts = new AtomicReferenceArray<Parts>(WINDOW);
+
+		/**
+		 * Next document each shard merges, and a flag held by the thread that merges for a shard.
+		 */
+		final AtomicIntegerArray next = new AtomicIntegerArray(shards.length);
+		final AtomicIntegerArray merging = new AtomicIntegerArray(shards.length);
+
+		/**
+		 * Permits for documents to be tokenized: one is released when a document has been
+		 * merged by every shard.
+		 */
+		final Semaphore window = new Semaphore(WINDOW);
+
+		volatile Throwable failure;
+
+		/**
+		 * Takes permits, as the caller of makeIndex.
+		 */
+		void acquire(int permits) {
+			try {
+				window.acquire(permits);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted", e);
+			}
+		}
+
+		/**
+		 * Adds the parts of a tokenized document, and merges what each shard can.
+		 */
+		void add(int doc, ArrayList<HashMap<String,Occurrence>> split) {
+			parts.set(doc % WINDOW, new Parts(doc, split));
+			for (int s = 0; s < shards.length; s++) {
+				merge(s);
+			}
+		}
+
+		/**
+		 * Merges the documents that are next for a shard, unless another thread is merging for
+		 * it. That thread looks again for the next document after it stops merging, so a
+		 * document added in the meantime is not left behind.
+		 */
+		private void merge(int shard) {
+			while (merging.compareAndSet(shard, 0, 1)) {
+				try {
+					Parts doc;
+					while ((doc = waiting(shard)) != null) {
+						shards[shard].mergeKeyWords(doc.split.get(shard));
+						next.set(shard, doc.doc + 1);
+						if (doc.left.decrementAndGet() == 0) {
+							parts.set(doc.doc % WINDOW, null);
+							window.release();
+						}
+					}
+				} finally {
+					merging.set(shard, 0);
+				}
+				if (waiting(shard) == null) {
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Returns the next document of a shard, if it has been added.
+		 */
+		private Parts waiting(int shard) {
+			int doc = next.get(shard);
+			// the slot may still hold document doc - WINDOW, for shards that are behind this one
+			Parts p = parts.get(doc % WINDOW);
+			return p != null && p.doc == doc ? p : null;
+		}
+
+		/**
+		 * Records the first failure, and gives the caller of makeIndex enough permits to stop
+		 * waiting.
+		 */
+		void fail(Throwable e) {
+			if (failure == null) {
+				failure = e;
+			}
+			window.release(WINDOW + 1);
+		}
+
+		/**
+		 * Throws the first failure, if there was one.
+		 */
+		void rethrow()
+		throws FileNotFoundException {
+			Throwable e = failure;
+			if (e instanceof FileNotFoundException) {
+				throw (FileNotFoundException)e;
+			}
+			if (e instanceof RuntimeException) {
+				throw (RuntimeException)e;
+			}
+			if (e instanceof Error) {
+				throw (Error)e;
+			}
+			if (e != null) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/**
+	 * A tokenized document: its keywords split by shard, and the number of shards that have yet
+	 * to merge their part.
+	 */
+	private static class Parts {
+		final int doc;
+		final ArrayList<HashMap<String,Occurrence>> split;
+		final AtomicInteger left;
+
+		Parts(int doc, ArrayList<HashMap<String,Occurrence>> split) {
+			this.doc = doc;
+			this.split = split;
+			left = new AtomicInteger(split.size());
+		}
+	}
+
+	/**
+	 * Scans a document, and loads all keywords found into a hash table of keyword occurrences
+	 * in the document, as LittleSearchEngine.loadKeyWords does.
+	 *
+	 * @param docFile Name of the document file to be scanned and loaded
+	 * @return Hash table of keywords in the given document, each associated with an Occurrence object
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	public HashMap<String,Occurrence> loadKeyWords(String docFile)
+	throws FileNotFoundException {
+		return shards[0].loadKeyWords(docFile);
+	}
+
+	/**
+	 * Merges the keywords of a single document into the index. Each keyword's occurrence goes
+	 * to the shard that owns the keyword. A table returned by loadKeyWords has its document
+	 * registered in the shared DocumentTable first. Documents can be merged from several threads
+	 * at once, and while the engine is searched.
+	 *
+	 * @param kws Keywords hash table for a document
+	 */
+	public void mergeKeyWords(HashMap<String,Occurrence> kws) {
+		if (kws instanceof DocumentKeywords) {
+			shards[0].register((DocumentKeywords)kws);
+		}
+		ArrayList<HashMap<String,Occurrence>> parts = split(kws);
+		for (int s = 0; s < shards.length; s++) {
+			if (!parts.get(s).isEmpty()) {
+				shards[s].mergeKeyWords(parts.get(s));
+			}
+		}
+	}
+
+	/**
+	 * Search result for "kw1 or kw2", as LittleSearchEngine.top5search.
+	 *
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @return List of NAMES of at most 5 documents in which either kw1 or kw2 occurs, arranged in
+	 *         descending order of frequencies
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2) {
+		return topK(5, kw1, kw2);
+	}
+
+	/**
+	 * Search result for "kw1 or kw2 or ...", ranked as by LittleSearchEngine.topK. Each keyword's
+	 * postings are looked up on its shard; when the keywords are on more than one shard, the
+	 * shards look up their own keywords at the same time, one on the calling thread and the
+	 * others on the shard threads. Keywords are normalized first (see LittleSearchEngine.normalize),
+	 * so a keyword goes to the shard that holds it however it was typed.
+	 *
+	 * @param k Maximum number of documents in the result
+	 * @param query Keywords to search for, in order of preference for breaking ties
+	 * @return List of NAMES of documents in which any of the keywords occurs, arranged in descending
+	 *         order of frequencies. The result size is limited to k documents.
+	 */
+	public ArrayList<String> topK(int k, String... query) {
+		ArrayList<String> fin = new ArrayList<String>();
+		if (k <= 0) {
+			return fin;
+		}
+		final String[] keywords = LittleSearchEngine.normalize(query);
+		final Postings[] lists = new Postings[keywords.length];
+		final int[] owner = new int[keywords.length];
+		BitSet involved = new BitSet(shards.length);
+		for (int i = 0; i < keywords.length; i++) {
+			owner[i] = shardOf(keywords[i]);
+			involved.set(owner[i]);
+		}
+		// the first shard's keywords are looked up on this thread, the others' on the pool
+		int first = involved.nextSetBit(0);
+		ArrayList<Future<?>> lookups = new ArrayList<Future<?>>(involved.cardinality());
+		for (int s = involved.nextSetBit(first + 1); s >= 0; s = involved.nextSetBit(s + 1)) {
+			final int shard = s;
+			lookups.add(pool.submit(new Runnable() {
+				public void run() {
+					lookup(shard, keywords, owner, lists);
+				}
+			}));
+		}
+		if (first >= 0) {
+			lookup(first, keywords, owner, lists);
+		}
+		for (Future<?> lookup : lookups) {
+			try {
+				await(lookup);
+			} catch (FileNotFoundException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		TopHits hits = LittleSearchEngine.topHits(k, lists, null);
+		for (int i = 0; i < hits.size; i++) {
+			fin.add(documents.name(hits.docs[i]));
+		}
+		return fin;
+	}
+
+	/**
+	 * Number of keywords on each shard.
+	 */
+	int[] shardSizes() {
+		int[] sizes = new int[shards.length];
+		for (int s = 0; s < shards.length; s++) {
+			sizes[s] = shards[s].keywordsIndex.size();
+		}
+		return sizes;
+	}
+
+	/**
+	 * Stops the shard threads. The engine can not be used after this.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Looks up the postings of the keywords that are on the given shard.
+	 */
+	private void lookup(int shard, String[] keywords, int[] owner, Postings[] lists) {
+		for (int i = 0; i < keywords.length; i++) {
+			if (owner[i] == shard) {
+				lists[i] = shards[shard].lookup(keywords[i]);
+			}
+		}
+	}
+
+	/**
+	 * Creates an empty shard that uses the engine's DocumentTable.
+	 */
+	private LittleSearchEngine newShard() {
+		LittleSearchEngine shard = new LittleSearchEngine();
+		shard.documents = documents;
+		return shard;
+	}
+
+	/**
+	 * Splits a document's keywords by shard.
+	 */
+	private ArrayList<HashMap<String,Occurrence>> split(HashMap<String,Occurrence> kws) {
+		ArrayList<HashMap<String,Occurrence>> parts = new ArrayList<HashMap<String,Occurrence>>(shards.length);
+		for (int s = 0; s < shards.length; s++) {
+			parts.add(new HashMap<String,Occurrence>(kws.size()*2/shards.length + 1));
+		}
+		for (Map.Entry<String,Occurrence> e : kws.entrySet()) {
+			parts.get(shardOf(e.getKey())).put(e.getKey(), e.getValue());
+		}
+		return parts;
+	}
+
+	/**
+	 * Waits for a task, and throws what it threw.
+	 */
+	private static void await(Future<?> task)
+	throws FileNotFoundException {
+		try {
+			task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof ExecutionException) {
+				cause = cause.getCause();
+			}
+			if (cause instanceof FileNotFoundException) {
+				throw (FileNotFoundException)cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+}
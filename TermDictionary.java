@@ -0,0 +1,287 @@
+package search;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * This class is a read-only dictionary of keywords for a sealed index. The keywords are sorted
+ * (as UTF-8 bytes) and front-coded into a single byte array: in every block of BLOCK keywords,
+ * the first keyword is stored in full, and each of the others as the length of the prefix it
+ * shares with the first keyword of the block, followed by the rest of its bytes. An int array
+ * holds the position of every keyword's entry, so any keyword can be read from two entries: its
+ * own and the first of its block. Its position in sorted order (its ordinal) is the offset of a
+ * keyword's posting list in the index.
+ *
+ * Exact lookups go through an open-addressed hash table of ordinals, keyed by the keyword's
+ * String hash code, which is also kept for every ordinal so that other keywords met while
+ * probing are passed over without reading the arena. A keyword whose hash code matches is
+ * compared with the key in place, without rebuilding it. Prefix lookups use a binary search
+ * over the first keywords of the blocks.
+ */
+class TermDictionary {
+
+	static final int BLOCK = 16;
+
+	private final byte[] arena;
+	private final int[] entries;
+	private final int size;
+
+	/**
+	 * Hash table of ordinal + 1 (0 for an empty slot), at most three quarters full, and the hash
+	 * code of the keyword of every ordinal.
+	 */
+	private final int[] table;
+	private final int[] hashes;
+
+	/**
+	 * Builds a dictionary of the given keywords.
+	 *
+	 * @param terms Keywords, in UTF-8 byte order (see IndexSegment.BYTE_ORDER), with no duplicates
+	 */
+	TermDictionary(List<byte[]> terms) {
+		size = terms.size();
+		entries = new int[size];
+		int capacity = 2;
+		while (capacity <= size + size/3) {
+			capacity <<= 1;
+		}
+		table = new int[capacity];
+		hashes = new int[size];
+		VarInt out = new VarInt(size*4);
+		byte[] first = null;
+		for (int t = 0; t < size; t++) {
+			byte[] term = terms.get(t);
+			int h = new String(term, StandardCharsets.UTF_8).hashCode();
+			hashes[t] = h;
+			int slot = mix(h) & (capacity - 1);
+			while (table[slot] != 0) {
+				slot = (slot + 1) & (capacity - 1);
+			}
+			table[slot] = t + 1;
+			entries[t] = out.length;
+			if (t % BLOCK == 0) {
+				first = term;
+				out.write(term.length);
+				out.writeBytes(term, 0, term.length);
+			} else {
+				int shared = 0, n = Math.min(first.length, term.length);
+				while (shared < n && first[shared] == term[shared]) {
+					shared++;
+				}
+				out.write(shared);
+				out.write(term.length - shared);
+				out.writeBytes(term, shared, term.length - shared);
+			}
+		}
+		arena = out.toByteArray();
+	}
+
+	/**
+	 * Builds a dictionary of the given keywords, which may be in any order.
+	 *
+	 * @param terms Keywords
+	 * @return Dictionary
+	 */
+	static TermDictionary of(Collection<String> terms) {
+		ArrayList<byte[]> sorted = new ArrayList<byte[]>(terms.size());
+		for (String term : terms) {
+			sorted.add(term.getBytes(StandardCharsets.UTF_8));
+		}
+		Collections.sort(sorted, IndexSegment.BYTE_ORDER);
+		return new TermDictionary(sorted);
+	}
+
+	/**
+	 * Number of keywords.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Memory used by the dictionary's arrays, in bytes.
+	 */
+	long bytes() {
+		return arena.length + 4L*(entries.length + table.length + hashes.length);
+	}
+
+	/**
+	 * Returns the ordinal of the given keyword.
+	 *
+	 * @param keyword Keyword
+	 * @return Position of the keyword in sorted order, or -1 if it is not in the dictionary
+	 */
+	int find(String keyword) {
+		int h = keyword.hashCode(), mask = table.length - 1;
+		String key = null;
+		for (int slot = mix(h) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+			int t = table[slot] - 1;
+			if (hashes[t] == h) {
+				if (key == null) {
+					key = bytes(keyword);
+				}
+				if (matches(t, key)) {
+					return t;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Tells whether the keyword with the given ordinal is the key (as returned by bytes): the
+	 * rest of the keyword is compared with the end of the key, and the prefix it shares with the
+	 * first keyword of its block with the start of the key.
+	 */
+	private boolean matches(int t, String key) {
+		int shared = 0, first = t - t % BLOCK;
+		long r = read(entries[t]);
+		if (t > first) {
+			shared = (int)(r >>> 32);
+			r = read((int)r);
+		}
+		int p = (int)r - shared;
+		if (shared + (int)(r >>> 32) != key.length()) {
+			return false;
+		}
+		for (int i = shared; i < key.length(); i++) {
+			if ((arena[p + i] & 0xff) != key.charAt(i)) {
+				return false;
+			}
+		}
+		if (shared > 0) {
+			p = (int)read(entries[first]);
+			for (int i = 0; i < shared; i++) {
+				if ((arena[p + i] & 0xff) != key.charAt(i)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the keyword with the given ordinal.
+	 *
+	 * @param ordinal Position of the keyword in sorted order
+	 * @return Keyword
+	 */
+	String term(int ordinal) {
+		long r = read(entries[ordinal - ordinal % BLOCK]);
+		int firstAt = (int)r, shared = 0;
+		if (ordinal % BLOCK != 0) {
+			r = read(entries[ordinal]);
+			shared = (int)(r >>> 32);
+			r = read((int)r);
+		}
+		int suffix = (int)(r >>> 32);
+		byte[] buf = new byte[shared + suffix];
+		System.arraycopy(arena, firstAt, buf, 0, shared);
+		System.arraycopy(arena, (int)r, buf, shared, suffix);
+		return new String(buf, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Adds the keywords that start with the given prefix to a list, in sorted order, up to the
+	 * given number of them. The block the first of them may be in is found by binary search over
+	 * the first keywords of the blocks, and the keywords are read one after another from the
+	 * start of that block, so only as many keywords are looked at as there are matches, plus at
+	 * most one block.
+	 *
+	 * @param prefix Prefix
+	 * @param max Most keywords to add
+	 * @param into List to add the keywords to
+	 * @return Number of keywords added
+	 */
+	int prefixed(String prefix, int max, List<String> into) {
+		if (size == 0 || max <= 0) {
+			return 0;
+		}
+		String key = bytes(prefix);
+		// last block whose first keyword is less than the key, or the first block
+		int lo = 0, hi = (size - 1)/BLOCK;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (compareFirst(mid, key) < 0) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		byte[] buf = new byte[Math.max(key.length(), 16)];
+		int added = 0, firstAt = 0;
+		for (int t = lo*BLOCK; t < size && added < max; t++) {
+			int shared = 0;
+			long r = read(entries[t]);
+			if (t % BLOCK == 0) {
+				firstAt = (int)r;
+			} else {
+				shared = (int)(r >>> 32);
+				r = read((int)r);
+			}
+			int suffix = (int)(r >>> 32), len = shared + suffix;
+			if (len > buf.length) {
+				buf = Arrays.copyOf(buf, Math.max(len, buf.length*2));
+			}
+			System.arraycopy(arena, firstAt, buf, 0, shared);
+			System.arraycopy(arena, (int)r, buf, shared, suffix);
+			int c = 0, n = Math.min(len, key.length());
+			for (int i = 0; i < n && c == 0; i++) {
+				c = (buf[i] & 0xff) - key.charAt(i);
+			}
+			if (c > 0) {
+				break;
+			}
+			if (c == 0 && len >= key.length()) {
+				into.add(new String(buf, 0, len, StandardCharsets.UTF_8));
+				added++;
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * Compares the first keyword of a block with the key.
+	 */
+	private int compareFirst(int block, String key) {
+		long r = read(entries[block*BLOCK]);
+		int len = (int)(r >>> 32), p = (int)r, n = Math.min(len, key.length());
+		for (int i = 0; i < n; i++) {
+			int c = (arena[p + i] & 0xff) - key.charAt(i);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return len - key.length();
+	}
+
+	/**
+	 * Spreads the bits of a hash code, so that keywords with close hash codes do not fall into
+	 * runs of adjacent slots.
+	 */
+	private static int mix(int h) {
+		h *= 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Returns the UTF-8 bytes of a keyword as the characters of a String, one byte per character.
+	 * An ASCII keyword (every keyword that passes getKeyWord) is returned as it is.
+	 */
+	private static String bytes(String keyword) {
+		for (int i = 0; i < keyword.length(); i++) {
+			if (keyword.charAt(i) >= 128) {
+				return new String(keyword.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+			}
+		}
+		return keyword;
+	}
+
+	/**
+	 * Reads the variable-byte int at position p. Returns the int in the high half, and the
+	 * position after it in the low half.
+	 */
+	private long read(int p) {
+		return VarInt.read(arena, p);
+	}
+}
@@ -0,0 +1,98 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class is the result of a top-k search before document ids are turned into names: the
+ * ids of the best documents, best first, each with the frequency it was ranked by and the rank
+ * (position in the query) of the keyword that gave it that frequency. Documents are ranked by
+ * descending frequency, then by ascending keyword rank, then by ascending document id, which
+ * is the order of LittleSearchEngine.topK when documents are merged in id order.
+ */
+class TopHits {
+
+	int[] docs;
+	int[] freqs;
+	int[] ranks;
+	int size;
+
+	/**
+	 * Creates an empty result with room for the given number of documents.
+	 *
+	 * @param capacity Initial capacity
+	 */
+	TopHits(int capacity) {
+		docs = new int[Math.max(1, capacity)];
+		freqs = new int[docs.length];
+		ranks = new int[docs.length];
+	}
+
+	/**
+	 * Appends a document, which must not rank before the ones already in the result.
+	 *
+	 * @param doc Document id
+	 * @param freq Frequency the document is ranked by
+	 * @param rank Rank of the keyword with that frequency
+	 */
+	void add(int doc, int freq, int rank) {
+		if (size == docs.length) {
+			int cap = size*2;
+			docs = Arrays.copyOf(docs, cap);
+			freqs = Arrays.copyOf(freqs, cap);
+			ranks = Arrays.copyOf(ranks, cap);
+		}
+		docs[size] = doc;
+		freqs[size] = freq;
+		ranks[size] = rank;
+		size++;
+	}
+
+	/**
+	 * Returns the document ids, best first.
+	 */
+	int[] docs() {
+		return Arrays.copyOf(docs, size);
+	}
+
+	/**
+	 * Returns true if the i-th document of this result ranks before the j-th document of other.
+	 */
+	boolean before(int i, TopHits other, int j) {
+		if (freqs[i] != other.freqs[j]) {
+			return freqs[i] > other.freqs[j];
+		}
+		if (ranks[i] != other.ranks[j]) {
+			return ranks[i] < other.ranks[j];
+		}
+		return docs[i] < other.docs[j];
+	}
+
+	/**
+	 * Merges the results of the same search over disjoint sets of documents into the top k
+	 * documents over all of them.
+	 *
+	 * @param k Maximum number of documents in the result
+	 * @param parts Results to merge, each best first, with no document in more than one
+	 * @return Merged result
+	 */
+	static TopHits merge(int k, List<TopHits> parts) {
+		TopHits merged = new TopHits(Math.min(k, 64));
+		int[] at = new int[parts.size()];
+		while (merged.size < k) {
+			int best = -1;
+			for (int p = 0; p < at.length; p++) {
+				if (at[p] < parts.get(p).size
+						&& (best < 0 || parts.get(p).before(at[p], parts.get(best), at[best]))) {
+					best = p;
+				}
+			}
+			if (best < 0) {
+				break;
+			}
+			TopHits part = parts.get(best);
+			int i = at[best]++;
+			merged.add(part.docs[i], part.freqs[i], part.ranks[i]);
+		}
+		return merged;
+	}
+}
@@ -0,0 +1,108 @@
+package search;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * This class writes non-negative ints as variable-byte integers: seven bits per byte, low
+ * bits first, with the high bit set on every byte but the last. Small numbers, like the gaps
+ * between sorted document ids, take a single byte. The static read methods read them back.
+ */
+class VarInt {
+
+	byte[] bytes;
+	int length;
+
+	/**
+	 * Creates an empty byte buffer.
+	 *
+	 * @param capacity Initial capacity in bytes
+	 */
+	VarInt(int capacity) {
+		bytes = new byte[Math.max(1, capacity)];
+	}
+
+	/**
+	 * Appends a non-negative int.
+	 *
+	 * @param v Value to append
+	 */
+	void write(int v) {
+		if (length + 5 > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(length + 5, bytes.length*2));
+		}
+		while ((v & ~0x7f) != 0) {
+			bytes[length++] = (byte)((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		bytes[length++] = (byte)v;
+	}
+
+	/**
+	 * Appends bytes as they are.
+	 *
+	 * @param b Bytes to append
+	 * @param off Position of the first byte to append
+	 * @param len Number of bytes to append
+	 */
+	void writeBytes(byte[] b, int off, int len) {
+		if (length + len > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(length + len, bytes.length*2));
+		}
+		System.arraycopy(b, off, bytes, length, len);
+		length += len;
+	}
+
+	/**
+	 * Returns the bytes written so far, in an array of exactly that size.
+	 */
+	byte[] toByteArray() {
+		return Arrays.copyOf(bytes, length);
+	}
+
+	/**
+	 * Reads the variable-byte int at position p. Returns the int in the high half, and the
+	 * position after it in the low half. Single byte ints are read here, and longer ones by
+	 * readLonger, which keeps this small enough to be inlined into decoding loops.
+	 *
+	 * @param b Bytes to read from
+	 * @param p Position of the int
+	 */
+	static long read(byte[] b, int p) {
+		int v = b[p];
+		return v >= 0 ? (long)v << 32 | (p + 1) : readLonger(b, p);
+	}
+
+	/**
+	 * Same as read(byte[], int), with absolute reads of a buffer, which is left as it is.
+	 *
+	 * @param b Buffer to read from
+	 * @param p Position of the int
+	 */
+	static long read(ByteBuffer b, int p) {
+		int v = b.get(p);
+		return v >= 0 ? (long)v << 32 | (p + 1) : readLonger(b, p);
+	}
+
+	private static long readLonger(byte[] b, int p) {
+		int v = b[p++] & 0x7f;
+		for (int shift = 7; ; shift += 7) {
+			int x = b[p++];
+			v |= (x & 0x7f) << shift;
+			if (x >= 0) {
+				return (long)v << 32 | p;
+			}
+		}
+	}
+
+	private static long readLonger(ByteBuffer b, int p) {
+		int v = b.get(p++) & 0x7f;
+		for (int shift = 7; ; shift += 7) {
+			int x = b.get(p++);
+			v |= (x & 0x7f) << shift;
+			if (x >= 0) {
+				return (long)v << 32 | p;
+			}
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Times AND queries (topKAnd) against emulating them by post-filtering the full OR result, as
+ * a client of topK has to, on the index as built and on a compressed copy. Queries pair a rare
+ * keyword with a common one, and two common keywords. Checks that topKAnd finds the same set
+ * of documents as the post-filtering.
+ *
+ * Usage: andQueryDriver docsFile noiseWordsFile [rounds]
+ */
+public class andQueryDriver {
+
+	public static void main(String[] args)
+	throws FileNotFoundException {
+		if (args.length < 2) {
+			System.out.println("Usage: andQueryDriver docsFile noiseWordsFile [rounds]");
+			return;
+		}
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		LittleSearchEngine engine = new LittleSearchEngine();
+		engine.makeIndex(args[0], args[1], Runtime.getRuntime().availableProcessors());
+		LittleSearchEngine compressed = new LittleSearchEngine();
+		compressed.makeIndex(args[0], args[1], Runtime.getRuntime().availableProcessors());
+		compressed.compress();
+
+		ArrayList<String> keywords = new ArrayList<String>(engine.keywordsIndex.keySet());
+		final LittleSearchEngine e = engine;
+		Collections.sort(keywords, new Comparator<String>() {
+			public int compare(String a, String b) {
+				return e.keywordsIndex.get(b).size() - e.keywordsIndex.get(a).size();
+			}
+		});
+		List<String> common = keywords.subList(0, Math.min(20, keywords.size()));
+		List<String> rare = keywords.subList(keywords.size()/2, Math.min(keywords.size()/2 + 20, keywords.size()));
+
+		run("rare and common", engine, compressed, rare, common, rounds);
+		run("common and common", engine, compressed, common, common, rounds);
+	}
+
+	static void run(String label, LittleSearchEngine engine, LittleSearchEngine compressed,
+			List<String> left, List<String> right, int rounds) {
+		int all = engine.documents.size(), diffs = 0, queries = 0;
+		long and = Long.MAX_VALUE, packed = Long.MAX_VALUE, filter = Long.MAX_VALUE;
+		for (int r = 0; r < rounds; r++) {
+			long start = System.nanoTime();
+			for (String kw1 : left) {
+				for (String kw2 : right) {
+					engine.topKAnd(10, kw1, kw2);
+				}
+			}
+			and = Math.min(and, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (String kw1 : left) {
+				for (String kw2 : right) {
+					compressed.topKAnd(10, kw1, kw2);
+				}
+			}
+			packed = Math.min(packed, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (String kw1 : left) {
+				for (String kw2 : right) {
+					postFilter(engine, all, kw1, kw2);
+				}
+			}
+			filter = Math.min(filter, System.nanoTime() - start);
+		}
+		for (String kw1 : left) {
+			for (String kw2 : right) {
+				queries++;
+				HashSet<String> expected = new HashSet<String>(postFilter(engine, all, kw1, kw2));
+				if (!new HashSet<String>(engine.topKAnd(all, kw1, kw2)).equals(expected)
+						|| !new HashSet<String>(compressed.topKAnd(all, kw1, kw2)).equals(expected)) {
+					diffs++;
+				}
+			}
+		}
+		System.out.printf("%s: topKAnd %.2f us, compressed %.2f us, post-filtered OR %.2f us per query, %s%n",
+				label, and/1e3/queries, packed/1e3/queries, filter/1e3/queries,
+				diffs == 0 ? "same documents" : diffs + " queries DO NOT MATCH");
+	}
+
+	/**
+	 * Emulates "kw1 and kw2" by getting every document with either keyword, and keeping those
+	 * that are in the posting lists of both.
+	 */
+	static ArrayList<String> postFilter(LittleSearchEngine engine, int all, String kw1, String kw2) {
+		ArrayList<String> both = new ArrayList<String>();
+		HashSet<String> in1 = names(engine, kw1), in2 = names(engine, kw2);
+		for (String doc : engine.topK(all, kw1, kw2)) {
+			if (in1.contains(doc) && in2.contains(doc)) {
+				both.add(doc);
+			}
+		}
+		return both;
+	}
+
+	static HashSet<String> names(LittleSearchEngine engine, String kw) {
+		HashSet<String> names = new HashSet<String>();
+		PostingList list = engine.postings(kw);
+		for (int i = 0; list != null && i < list.size(); i++) {
+			names.add(engine.documents.name(list.doc(i)));
+		}
+		return names;
+	}
+}
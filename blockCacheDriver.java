@@ -0,0 +1,202 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Saves the partial indexes of a build as segment files, loads each of them twice, and gives
+ * one copy of each a shared BlockCache. Then runs a skewed log of queries (two or three of the
+ * 200 most common keywords, picked with a Zipf distribution) through topK and through topKBM25,
+ * on a number of threads over every segment, with and without the cache, and prints the time
+ * per query and the hit ratio of each segment. Then reads every posting of a few thousand rarely used lists,
+ * once, and runs the log again, to show that the scan does not push the hot blocks out. Checks
+ * that topKBM25, topK and topKAnd give the same results with the cache as without it. Then
+ * reopens the segments many more times than the cache has segment ids, checking that a reopened
+ * segment finds the blocks cached before, and that unregistering a segment drops its blocks.
+ *
+ * Usage: blockCacheDriver docsFile noiseWordsFile [segments] [queries] [threads] [cacheBytes]
+ */
+public class blockCacheDriver {
+
+	public static void main(String[] args)
+	throws Exception {
+		if (args.length < 2) {
+			System.out.println("Usage: blockCacheDriver docsFile noiseWordsFile [segments] [queries] [threads] [cacheBytes]");
+			return;
+		}
+		int segments = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		int count = args.length > 3 ? Integer.parseInt(args[3]) : 20000;
+		int threads = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+		long budget = args.length > 5 ? Long.parseLong(args[5]) : 4 << 20;
+
+		LittleSearchEngine builder = new LittleSearchEngine();
+		PartialIndex[] parts = builder.partialIndexes(args[0], args[1], segments);
+		final LittleSearchEngine[] plain = new LittleSearchEngine[parts.length];
+		final LittleSearchEngine[] cached = new LittleSearchEngine[parts.length];
+		BlockCache cache = new BlockCache(budget);
+		final HashMap<String,Integer> sizes = new HashMap<String,Integer>();
+		for (int s = 0; s < parts.length; s++) {
+			File f = File.createTempFile("segment" + s + "-", ".lseg");
+			f.deleteOnExit();
+			parts[s].save(f.getPath(), builder.documents.names(), builder.documents.norms(),
+					builder.documents.totalLength(), builder.noiseWords.keySet());
+			plain[s] = LittleSearchEngine.load(f.getPath());
+			cached[s] = LittleSearchEngine.load(f.getPath());
+			cached[s].cacheBlocks(cache);
+			for (Map.Entry<String,PostingList> e : parts[s].index.entrySet()) {
+				Integer n = sizes.get(e.getKey());
+				sizes.put(e.getKey(), e.getValue().size() + (n == null ? 0 : n));
+			}
+		}
+		ArrayList<String> keywords = new ArrayList<String>(sizes.keySet());
+		Collections.sort(keywords, new Comparator<String>() {
+			public int compare(String a, String b) {
+				int diff = sizes.get(b) - sizes.get(a);
+				return diff != 0 ? diff : a.compareTo(b);
+			}
+		});
+		String[][] log = log(new ArrayList<String>(keywords.subList(0, Math.min(200, keywords.size()))),
+				count, new Random(42));
+
+		for (char kind : new char[] {'o', 'b'}) {
+			long plainNanos = Long.MAX_VALUE, cachedNanos = Long.MAX_VALUE;
+			for (int r = 0; r < 3; r++) {
+				plainNanos = Math.min(plainNanos, run(plain, log, threads, kind));
+				cachedNanos = Math.min(cachedNanos, run(cached, log, threads, kind));
+			}
+			System.out.printf("%s, %d segments, %d queries on %d threads: %.2f us per query without cache, %.2f us with cache%n",
+					kind == 'o' ? "topK" : "topKBM25", parts.length, count, threads, plainNanos/1e3/count,
+					cachedNanos/1e3/count);
+		}
+		System.out.println("cache: " + cache);
+
+		// read a few thousand cold lists once, then run the log again
+		long[] before = counts(cached);
+		List<String> cold = keywords.subList(Math.min(200, keywords.size()), Math.min(5000, keywords.size()));
+		for (LittleSearchEngine engine : cached) {
+			for (String kw : cold) {
+				Postings list = engine.lookup(kw);
+				if (list != null) {
+					for (DocCursor c = list.docCursor(); c.next(); ) {
+					}
+				}
+			}
+		}
+		long[] scanned = counts(cached);
+		run(cached, log, threads, 'o');
+		long[] after = counts(cached);
+		System.out.printf("scan of %d cold lists: %.1f%% hit; log before it %.1f%% hit, log after it %.1f%% hit%n",
+				cold.size(), ratio(before, scanned), ratio(new long[2], before), ratio(scanned, after));
+
+		int diffs = 0;
+		for (String[] q : log) {
+			for (int s = 0; s < parts.length; s++) {
+				if (!plain[s].topKBM25(10, q).equals(cached[s].topKBM25(10, q))
+						|| !plain[s].topK(10, q).equals(cached[s].topK(10, q))
+						|| !plain[s].topKAnd(10, q).equals(cached[s].topKAnd(10, q))) {
+					diffs++;
+				}
+			}
+		}
+		System.out.println(diffs == 0 ? "every search matches the uncached segments" : diffs + " searches DO NOT MATCH");
+
+		// reopen every segment, and close it again, more times than there are segment ids
+		int reopened = 0, shared = 0;
+		for (int r = 0; r < BlockCache.MAX_SEGMENTS; r++) {
+			for (int s = 0; s < parts.length; s++) {
+				LittleSearchEngine engine = LittleSearchEngine.load(cached[s].segment.name);
+				engine.cacheBlocks(cache);
+				if (engine.blockCache() == cached[s].blockCache()) {
+					shared++;
+				}
+				engine.topKBM25(10, log[r]);
+				engine.cacheBlocks(null);
+				reopened++;
+			}
+		}
+		int blocks = cache.size();
+		for (LittleSearchEngine engine : cached) {
+			engine.cacheBlocks(null);
+		}
+		System.out.printf("%d segments reopened: %d shared the blocks cached before; %d blocks cached, %d after "
+				+ "unregistering every segment, %d segments registered%n", reopened, shared, blocks, cache.size(),
+				cache.segments().size());
+	}
+
+	/**
+	 * Runs the log through topK ('o') or topKBM25 ('b') on the given number of threads, each taking
+	 * every threads-th query, and returns the time taken in nanoseconds.
+	 */
+	static long run(final LittleSearchEngine[] engines, final String[][] log, final int threads, final char kind)
+	throws InterruptedException {
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int first = t;
+			workers[t] = new Thread(new Runnable() {
+				public void run() {
+					for (int i = first; i < log.length; i += threads) {
+						for (LittleSearchEngine engine : engines) {
+							if (kind == 'o') {
+								engine.topK(10, log[i]);
+							} else {
+								engine.topKBM25(10, log[i]);
+							}
+						}
+					}
+				}
+			});
+		}
+		long start = System.nanoTime();
+		for (Thread w : workers) {
+			w.start();
+		}
+		for (Thread w : workers) {
+			w.join();
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Hits and misses of all the segments.
+	 */
+	static long[] counts(LittleSearchEngine[] engines) {
+		long[] counts = new long[2];
+		for (LittleSearchEngine engine : engines) {
+			counts[0] += engine.blockCache().hits();
+			counts[1] += engine.blockCache().misses();
+		}
+		return counts;
+	}
+
+	static double ratio(long[] from, long[] to) {
+		long hits = to[0] - from[0], total = hits + to[1] - from[1];
+		return total == 0 ? 0 : 100.0*hits/total;
+	}
+
+	/**
+	 * Makes a log of queries of two or three keywords, drawn from a Zipf distribution over 5000
+	 * distinct queries.
+	 */
+	static String[][] log(ArrayList<String> keywords, int count, Random random) {
+		int distinct = 5000;
+		String[][] queries = new String[distinct][];
+		for (int q = 0; q < distinct; q++) {
+			queries[q] = new String[2 + random.nextInt(2)];
+			for (int i = 0; i < queries[q].length; i++) {
+				queries[q][i] = keywords.get(random.nextInt(keywords.size()));
+			}
+		}
+		double[] cumulative = new double[distinct];
+		double sum = 0;
+		for (int q = 0; q < distinct; q++) {
+			sum += 1.0/(q + 1);
+			cumulative[q] = sum;
+		}
+		String[][] log = new String[count][];
+		for (int i = 0; i < count; i++) {
+			int q = Arrays.binarySearch(cumulative, random.nextDouble()*sum);
+			log[i] = queries[q < 0 ? Math.min(-q - 1, distinct - 1) : q];
+		}
+		return log;
+	}
+}
@@ -0,0 +1,112 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compares the block-max WAND search (topKBM25) with scoring every posting (scoreBM25) on
+ * queries of three to six of the 100 most common keywords, at several values of k: the postings
+ * scored and the time per search, on the index as built and on a compressed copy of it. Checks
+ * that both give the same documents with the same scores, and prints how long it takes to bound
+ * the scores of the blocks of the keywords from their impacts, which every search does.
+ *
+ * Usage: blockMaxDriver docsFile noiseWordsFile [queries]
+ */
+public class blockMaxDriver {
+
+	static final int[] K = {10, 100};
+
+	public static void main(String[] args)
+	throws FileNotFoundException {
+		if (args.length < 2) {
+			System.out.println("Usage: blockMaxDriver docsFile noiseWordsFile [queries]");
+			return;
+		}
+		int count = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+		LittleSearchEngine engine = new LittleSearchEngine();
+		engine.makeIndex(args[0], args[1], Runtime.getRuntime().availableProcessors());
+		LittleSearchEngine compressed = new LittleSearchEngine();
+		compressed.makeIndex(args[0], args[1], Runtime.getRuntime().availableProcessors());
+		compressed.compress();
+
+		ArrayList<String> common = new ArrayList<String>(engine.keywordsIndex.keySet());
+		final LittleSearchEngine e = engine;
+		Collections.sort(common, new Comparator<String>() {
+			public int compare(String a, String b) {
+				return e.keywordsIndex.get(b).size() - e.keywordsIndex.get(a).size();
+			}
+		});
+		common = new ArrayList<String>(common.subList(0, Math.min(100, common.size())));
+		Random random = new Random(42);
+		String[][] queries = new String[count][];
+		for (int q = 0; q < count; q++) {
+			queries[q] = new String[3 + random.nextInt(4)];
+			for (int i = 0; i < queries[q].length; i++) {
+				queries[q][i] = common.get(random.nextInt(common.size()));
+			}
+		}
+
+		long start = System.nanoTime();
+		BM25 bm25 = engine.scorer();
+		for (String kw : common) {
+			engine.blockMaxScores(kw, bm25);
+		}
+		System.out.printf("block maxima of %d keywords: %.1f ms%n", common.size(), (System.nanoTime() - start)/1e6);
+
+		run("in memory", engine, queries);
+		run("compressed", compressed, queries);
+	}
+
+	static void run(String label, LittleSearchEngine engine, String[][] queries) {
+		BM25 bm25 = engine.scorer();
+		for (int k : K) {
+			SearchStats wand = null, full = null;
+			long wandNanos = Long.MAX_VALUE, fullNanos = Long.MAX_VALUE;
+			for (int r = 0; r < 5; r++) {
+				SearchStats ws = new SearchStats(), fs = new SearchStats();
+				long start = System.nanoTime();
+				for (String[] query : queries) {
+					engine.topKBM25(ws, k, query);
+				}
+				wandNanos = Math.min(wandNanos, System.nanoTime() - start);
+				start = System.nanoTime();
+				for (String[] query : queries) {
+					LittleSearchEngine.scoreBM25(k, lists(engine, query), bm25, fs);
+				}
+				fullNanos = Math.min(fullNanos, System.nanoTime() - start);
+				wand = ws;
+				full = fs;
+			}
+			int diffs = 0;
+			for (String[] query : queries) {
+				BlockMaxScores[] terms = new BlockMaxScores[query.length];
+				for (int i = 0; i < query.length; i++) {
+					terms[i] = engine.blockMaxScores(query[i], bm25);
+				}
+				ScoredHits a = LittleSearchEngine.blockMaxWand(k, terms, null);
+				ScoredHits b = LittleSearchEngine.scoreBM25(k, lists(engine, query), bm25, null);
+				boolean same = a.size == b.size;
+				for (int i = 0; same && i < a.size; i++) {
+					same = a.docs[i] == b.docs[i] && a.scores[i] == b.scores[i];
+				}
+				if (!same) {
+					diffs++;
+				}
+			}
+			System.out.printf("%s, k=%d: block-max WAND scored %d postings, %.2f us per search%n",
+					label, k, wand.read, wandNanos/1e3/queries.length);
+			System.out.printf("%s  exhaustive scored %d postings (%.1fx), %.2f us per search (%.1fx), %s%n",
+					label.replaceAll(".", " "), full.read, (double)full.read/Math.max(1, wand.read),
+					fullNanos/1e3/queries.length, (double)fullNanos/wandNanos,
+					diffs == 0 ? "same results" : diffs + " searches DO NOT MATCH");
+		}
+	}
+
+	static Postings[] lists(LittleSearchEngine engine, String[] query) {
+		Postings[] lists = new Postings[query.length];
+		for (int i = 0; i < query.length; i++) {
+			lists[i] = engine.lookup(query[i]);
+		}
+		return lists;
+	}
+}
@@ -0,0 +1,140 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compares BM25 ranking (topKBM25) with ranking by frequency (topK) on queries of two to four
+ * of the 50 most common keywords: the time per search and per posting scored, and the average
+ * length of the documents each puts in its top 10. Checks topKBM25 against BM25 computed
+ * directly from exact document lengths (counted from the posting lists), and prints how many of
+ * the top 10 documents are the same, which shows what the one-byte norms cost in accuracy.
+ *
+ * Usage: bm25Driver docsFile noiseWordsFile [queries]
+ */
+public class bm25Driver {
+
+	public static void main(String[] args)
+	throws FileNotFoundException {
+		if (args.length < 2) {
+			System.out.println("Usage: bm25Driver docsFile noiseWordsFile [queries]");
+			return;
+		}
+		int count = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+		LittleSearchEngine engine = new LittleSearchEngine();
+		engine.makeIndex(args[0], args[1], Runtime.getRuntime().availableProcessors());
+
+		ArrayList<String> common = new ArrayList<String>(engine.keywordsIndex.keySet());
+		final LittleSearchEngine e = engine;
+		Collections.sort(common, new Comparator<String>() {
+			public int compare(String a, String b) {
+				return e.keywordsIndex.get(b).size() - e.keywordsIndex.get(a).size();
+			}
+		});
+		common = new ArrayList<String>(common.subList(0, Math.min(50, common.size())));
+		Random random = new Random(42);
+		String[][] queries = new String[count][];
+		for (int q = 0; q < count; q++) {
+			queries[q] = new String[2 + random.nextInt(3)];
+			for (int i = 0; i < queries[q].length; i++) {
+				queries[q][i] = common.get(random.nextInt(common.size()));
+			}
+		}
+
+		// exact lengths, from the postings
+		int n = engine.documents.size();
+		long[] lengths = new long[n];
+		for (PostingList list : engine.keywordsIndex.values()) {
+			for (int i = 0; i < list.size(); i++) {
+				lengths[list.doc(i)] += list.freq(i);
+			}
+		}
+
+		long bm25Nanos = Long.MAX_VALUE, freqNanos = Long.MAX_VALUE;
+		SearchStats stats = null;
+		for (int r = 0; r < 10; r++) {
+			SearchStats s = new SearchStats();
+			long start = System.nanoTime();
+			for (String[] query : queries) {
+				engine.topKBM25(s, 10, query);
+			}
+			bm25Nanos = Math.min(bm25Nanos, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (String[] query : queries) {
+				engine.topK(10, query);
+			}
+			freqNanos = Math.min(freqNanos, System.nanoTime() - start);
+			stats = s;
+		}
+
+		long bm25Length = 0, freqLength = 0, results = 0, same = 0, top = 0;
+		for (String[] query : queries) {
+			ArrayList<String> bm25 = engine.topKBM25(10, query);
+			for (String doc : bm25) {
+				bm25Length += lengths[engine.documents.id(doc)];
+			}
+			for (String doc : engine.topK(10, query)) {
+				freqLength += lengths[engine.documents.id(doc)];
+			}
+			results += bm25.size();
+			List<String> exact = exact(engine, lengths, query);
+			top += exact.size();
+			for (String doc : exact) {
+				if (bm25.contains(doc)) {
+					same++;
+				}
+			}
+		}
+		System.out.printf("%d queries: topKBM25 %.2f us per search, %.1f ns per posting scored; topK %.2f us per search%n",
+				count, bm25Nanos/1e3/count, (double)bm25Nanos/stats.read, freqNanos/1e3/count);
+		System.out.printf("average length of top 10 documents: BM25 %.1f, frequency %.1f (all documents %.1f)%n",
+				(double)bm25Length/results, (double)freqLength/results, (double)sum(lengths)/n);
+		System.out.printf("top 10 with one-byte norms vs exact lengths: %d of %d the same (%.1f%%)%n",
+				same, top, 100.0*same/top);
+	}
+
+	static long sum(long[] values) {
+		long sum = 0;
+		for (long v : values) {
+			sum += v;
+		}
+		return sum;
+	}
+
+	/**
+	 * BM25 top 10 computed in doubles from exact document lengths.
+	 */
+	static List<String> exact(LittleSearchEngine engine, long[] lengths, String[] query) {
+		int n = lengths.length;
+		double average = (double)sum(lengths)/n;
+		final double[] scores = new double[n];
+		for (String kw : query) {
+			PostingList list = engine.keywordsIndex.get(kw);
+			if (list == null) {
+				continue;
+			}
+			double idf = Math.log(1 + (n - list.size() + 0.5)/(list.size() + 0.5));
+			for (int i = 0; i < list.size(); i++) {
+				int doc = list.doc(i), tf = list.freq(i);
+				scores[doc] += idf*tf*(BM25.K1 + 1)
+						/(tf + BM25.K1*(1 - BM25.B + BM25.B*lengths[doc]/average));
+			}
+		}
+		ArrayList<Integer> docs = new ArrayList<Integer>();
+		for (int d = 0; d < n; d++) {
+			if (scores[d] > 0) {
+				docs.add(d);
+			}
+		}
+		Collections.sort(docs, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return scores[a] != scores[b] ? Double.compare(scores[b], scores[a]) : a - b;
+			}
+		});
+		ArrayList<String> names = new ArrayList<String>();
+		for (int i = 0; i < docs.size() && i < 10; i++) {
+			names.add(engine.documents.name(docs.get(i)));
+		}
+		return names;
+	}
+}
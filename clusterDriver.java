@@ -0,0 +1,123 @@
+package search;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * Starts a cluster of ClusterNode processes on the loopback interface, and searches it with a
+ * ClusterCoordinator. Checks that every search gives the same result as a single
+ * LittleSearchEngine, and times the searches. Then replaces the node of shard 0 with one that
+ * answers late, and checks that searches come back within the timeout with partial results,
+ * which must be the top documents of the other shards.
+ *
+ * Usage: clusterDriver docsFile noiseWordsFile [nodes [timeoutMillis]]
+ *
+ * The documents in docsFile must all have different names.
+ */
+public class clusterDriver {
+
+	public static void main(String[] args)
+	throws IOException, InterruptedException {
+		if (args.length < 2) {
+			System.out.println("Usage: clusterDriver docsFile noiseWordsFile [nodes [timeoutMillis]]");
+			return;
+		}
+		int nodes = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		int timeout = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+
+		LittleSearchEngine single = new LittleSearchEngine();
+		single.makeIndex(args[0], args[1], Runtime.getRuntime().availableProcessors());
+		ArrayList<String> keywords = new ArrayList<String>(single.keywordsIndex.keySet());
+		int n = keywords.size();
+
+		ArrayList<Process> processes = new ArrayList<Process>();
+		InetSocketAddress[] addresses = new InetSocketAddress[nodes];
+		try {
+			for (int s = 0; s < nodes; s++) {
+				addresses[s] = start(processes, args, s, nodes, 0);
+			}
+			ClusterCoordinator cluster = new ClusterCoordinator(10*timeout, addresses);
+			System.out.println("nodes (shard, shards, documents): " + Arrays.deepToString(cluster.ping()));
+
+			int diffs = 0, partial = 0;
+			long start = System.nanoTime();
+			for (int i = 0; i < n; i++) {
+				String kw1 = keywords.get(i), kw2 = keywords.get((i*31 + 7) % n);
+				String kw3 = keywords.get((i*17 + 3) % n), kw4 = keywords.get((i*13 + 5) % n);
+				ClusterCoordinator.Result r = cluster.topK(5, kw1, kw2);
+				partial += r.partial() ? 1 : 0;
+				diffs += r.documents.equals(single.top5search(kw1, kw2)) ? 0 : 1;
+				r = cluster.topK(5, kw1, kw2, kw3, kw4);
+				partial += r.partial() ? 1 : 0;
+				diffs += r.documents.equals(single.topK(5, kw1, kw2, kw3, kw4)) ? 0 : 1;
+			}
+			long nanos = System.nanoTime() - start;
+			System.out.printf("%d nodes: %d searches, %.1f us per search, %d partial, %s%n", nodes, 2*n,
+					nanos/1e3/(2*n), partial, diffs == 0 ? "matches single engine" : diffs + " searches DO NOT MATCH");
+			cluster.close();
+
+			// shard 0 is served by a node that answers after 5 timeouts
+			InetSocketAddress fast = addresses[0];
+			addresses[0] = start(processes, args, 0, nodes, 5*timeout);
+			cluster = new ClusterCoordinator(timeout, addresses);
+			PartitionedSearchEngine local = new PartitionedSearchEngine(nodes);
+			local.makeIndex(args[0], args[1]);
+			int queries = Math.min(n, 20);
+			diffs = 0;
+			partial = 0;
+			long worst = 0;
+			for (int i = 0; i < queries; i++) {
+				String kw1 = keywords.get(i), kw2 = keywords.get((i*31 + 7) % n);
+				long t0 = System.nanoTime();
+				ClusterCoordinator.Result r = cluster.topK(5, kw1, kw2);
+				worst = Math.max(worst, System.nanoTime() - t0);
+				partial += r.partial() ? 1 : 0;
+				ArrayList<TopHits> others = new ArrayList<TopHits>();
+				for (int s = 1; s < nodes; s++) {
+					others.add(local.shards[s].topHits(5, kw1, kw2));
+				}
+				TopHits expected = TopHits.merge(5, others);
+				ArrayList<String> names = new ArrayList<String>();
+				for (int h = 0; h < expected.size; h++) {
+					names.add(single.documents.name(expected.docs[h]));
+				}
+				diffs += r.documents.equals(names) ? 0 : 1;
+			}
+			local.shutdown();
+			System.out.printf("slow shard 0: %d of %d searches partial, slowest %.1f ms (timeout %d ms), %s%n",
+					partial, queries, worst/1e6, timeout,
+					diffs == 0 ? "partial results match the other shards" : diffs + " partial results DO NOT MATCH");
+			cluster.shutdownNodes();
+			cluster.close();
+			new ClusterCoordinator(timeout, fast).shutdownNodes();
+		} finally {
+			for (Process p : processes) {
+				p.destroy();
+			}
+		}
+	}
+
+	/**
+	 * Starts a node process for the given shard on a free port, and waits until it is ready.
+	 */
+	static InetSocketAddress start(ArrayList<Process> processes, String[] args, int shard, int shards,
+			int delayMillis)
+	throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				"search.ClusterNode", args[0], args[1], String.valueOf(shard), String.valueOf(shards), "0",
+				String.valueOf(delayMillis));
+		pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+		Process p = pb.start();
+		processes.add(p);
+		BufferedReader out = new BufferedReader(new InputStreamReader(p.getInputStream()));
+		String line;
+		while ((line = out.readLine()) != null) {
+			if (line.startsWith("ready ")) {
+				return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(line.substring(6)));
+			}
+		}
+		throw new IOException("Node for shard " + shard + " did not start");
+	}
+}
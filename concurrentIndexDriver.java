@@ -0,0 +1,170 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Stress test for the concurrent index. Half of the documents are indexed up front, the index
+ * is switched to concurrent mode, and the other half are merged by writer threads while reader
+ * threads search it. Every posting list a reader sees must be in descending order of
+ * frequencies, must have no document twice, must hold only occurrences that are in the index
+ * built serially from all the documents, and must never shrink. Every search result must have
+ * no document twice, and only documents with one of the keywords. When the writers are done,
+ * the index must have the same occurrences as the serial one.
+ *
+ * Usage: concurrentIndexDriver docsFile noiseWordsFile [writers [readers]]
+ *
+ * The documents in docsFile must all have different names.
+ */
+public class concurrentIndexDriver {
+
+	public static void main(String[] args)
+	throws FileNotFoundException, InterruptedException {
+		if (args.length < 2) {
+			System.out.println("Usage: concurrentIndexDriver docsFile noiseWordsFile [writers [readers]]");
+			return;
+		}
+		int writers = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		int readers = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+		final ArrayList<String> docs = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(args[0]));
+		while (sc.hasNext()) {
+			docs.add(sc.next());
+		}
+
+		LittleSearchEngine serial = new LittleSearchEngine();
+		serial.loadNoiseWords(args[1]);
+		for (String doc : docs) {
+			serial.mergeKeyWords(serial.loadKeyWords(doc));
+		}
+		// keyword -> document name -> frequency
+		final HashMap<String,HashMap<String,Integer>> expected = occurrences(serial);
+		final ArrayList<String> keywords = new ArrayList<String>(expected.keySet());
+
+		final LittleSearchEngine engine = new LittleSearchEngine();
+		engine.loadNoiseWords(args[1]);
+		for (int i = 0; i < docs.size()/2; i++) {
+			engine.mergeKeyWords(engine.loadKeyWords(docs.get(i)));
+		}
+		engine.concurrentIndex();
+
+		final AtomicInteger next = new AtomicInteger(docs.size()/2);
+		final AtomicInteger writing = new AtomicInteger(writers);
+		final AtomicLong searches = new AtomicLong(), lists = new AtomicLong();
+		final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		for (int w = 0; w < writers; w++) {
+			threads.add(new Thread() {
+				public void run() {
+					try {
+						int i;
+						while ((i = next.getAndIncrement()) < docs.size()) {
+							engine.mergeKeyWords(engine.loadKeyWords(docs.get(i)));
+						}
+					} catch (FileNotFoundException e) {
+						errors.add(e.toString());
+					} finally {
+						writing.decrementAndGet();
+					}
+				}
+			});
+		}
+		for (int r = 0; r < readers; r++) {
+			final long seed = r;
+			threads.add(new Thread() {
+				public void run() {
+					Random random = new Random(seed);
+					HashMap<String,Integer> seen = new HashMap<String,Integer>();
+					do {
+						String kw1 = keywords.get(random.nextInt(keywords.size()));
+						String kw2 = keywords.get(random.nextInt(keywords.size()));
+						check(engine, kw1, expected.get(kw1), seen, errors);
+						check(engine, kw2, expected.get(kw2), seen, errors);
+						ArrayList<String> hits = engine.top5search(kw1, kw2);
+						if (hits.size() > 5 || new HashSet<String>(hits).size() != hits.size()) {
+							errors.add("bad result for " + kw1 + " or " + kw2 + ": " + hits);
+						}
+						for (String name : hits) {
+							if (!expected.get(kw1).containsKey(name) && !expected.get(kw2).containsKey(name)) {
+								errors.add(name + " does not have " + kw1 + " or " + kw2);
+							}
+						}
+						searches.incrementAndGet();
+						lists.addAndGet(2);
+					} while (writing.get() > 0 && errors.size() < 10);
+				}
+			});
+		}
+		long start = System.nanoTime();
+		for (Thread t : threads) {
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		long nanos = System.nanoTime() - start;
+
+		if (!occurrences(engine).equals(expected)) {
+			errors.add("final index does not match the serial index");
+		}
+		for (String kw : keywords) {
+			check(engine, kw, expected.get(kw), new HashMap<String,Integer>(), errors);
+			if (engine.postings(kw).size() != expected.get(kw).size()) {
+				errors.add("final list of " + kw + " has " + engine.postings(kw).size() + " postings");
+			}
+		}
+		System.out.printf("%d writers, %d readers: %d documents merged, %d searches (%d lists checked) in %.1f ms%n",
+				writers, readers, docs.size() - docs.size()/2, searches.get(), lists.get(), nanos/1e6);
+		for (String error : errors.subList(0, Math.min(10, errors.size()))) {
+			System.out.println("ERROR: " + error);
+		}
+		System.out.println(errors.isEmpty() ? "consistent" : errors.size() + " errors");
+	}
+
+	/**
+	 * Checks one posting list as a reader sees it, and remembers its size.
+	 */
+	static void check(LittleSearchEngine engine, String kw, HashMap<String,Integer> expected,
+			HashMap<String,Integer> seen, List<String> errors) {
+		PostingList list = engine.postings(kw);
+		int size = list == null ? 0 : list.size();
+		Integer before = seen.put(kw, size);
+		if (before != null && size < before) {
+			errors.add("list of " + kw + " shrank from " + before + " to " + size);
+		}
+		HashSet<Integer> docs = new HashSet<Integer>();
+		for (int i = 0; i < size; i++) {
+			if (i > 0 && list.freq(i) > list.freq(i-1)) {
+				errors.add("list of " + kw + " is out of order: " + list);
+				return;
+			}
+			if (!docs.add(list.doc(i))) {
+				errors.add("list of " + kw + " has document " + list.doc(i) + " twice");
+				return;
+			}
+			Integer freq = expected.get(engine.documents.name(list.doc(i)));
+			if (freq == null || freq != list.freq(i)) {
+				errors.add("list of " + kw + " has wrong occurrence " + engine.documents.name(list.doc(i))
+						+ "," + list.freq(i));
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the occurrences of every keyword, by document name.
+	 */
+	static HashMap<String,HashMap<String,Integer>> occurrences(LittleSearchEngine engine) {
+		HashMap<String,HashMap<String,Integer>> all = new HashMap<String,HashMap<String,Integer>>();
+		for (Map.Entry<String,PostingList> e : engine.keywordsIndex.entrySet()) {
+			HashMap<String,Integer> byName = new HashMap<String,Integer>();
+			PostingList list = e.getValue();
+			for (int i = 0; i < list.size(); i++) {
+				byName.put(engine.documents.name(list.doc(i)), list.freq(i));
+			}
+			all.put(e.getKey(), byName);
+		}
+		return all;
+	}
+}
@@ -0,0 +1,46 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Builds an index, saves it to a segment file, and loads it back, timing the build against
+ * the load and checking that the loaded engine gives the same results for every keyword.
+ *
+ * Usage: indexFileDriver docsFile noiseWordsFile indexFile
+ */
+public class indexFileDriver {
+
+	public static void main(String[] args)
+	throws IOException {
+		if (args.length < 3) {
+			System.out.println("Usage: indexFileDriver docsFile noiseWordsFile indexFile");
+			return;
+		}
+		long start = System.nanoTime();
+		LittleSearchEngine built = new LittleSearchEngine();
+		built.makeIndex(args[0], args[1], Runtime.getRuntime().availableProcessors());
+		long buildNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		built.save(args[2]);
+		long saveNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		LittleSearchEngine loaded = LittleSearchEngine.load(args[2]);
+		long loadNanos = System.nanoTime() - start;
+
+		System.out.printf("build %.2f ms, save %.2f ms, load %.2f ms, %d bytes%n",
+				buildNanos/1e6, saveNanos/1e6, loadNanos/1e6, new File(args[2]).length());
+
+		int diffs = 0;
+		ArrayList<String> keywords = new ArrayList<String>(built.keywordsIndex.keySet());
+		for (int i = 0; i < keywords.size(); i++) {
+			String kw1 = keywords.get(i), kw2 = keywords.get((i*31 + 7) % keywords.size());
+			if (!built.top5search(kw1, kw2).equals(loaded.top5search(kw1, kw2))) {
+				diffs++;
+			}
+		}
+		System.out.println(diffs == 0 ? "loaded index matches" : diffs + " searches DO NOT MATCH");
+	}
+}
@@ -0,0 +1,78 @@
+package search;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Measures time and heap allocation per token of getKeyWord, against the old
+ * toLowerCase/substring normalization with a containsValue noise word check.
+ *
+ * Usage: keywordBenchDriver docsFile noiseWordsFile [rounds]
+ */
+public class keywordBenchDriver {
+
+	public static void main(String[] args)
+	throws FileNotFoundException {
+		if (args.length < 2) {
+			System.out.println("Usage: keywordBenchDriver docsFile noiseWordsFile [rounds]");
+			return;
+		}
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		LittleSearchEngine engine = new LittleSearchEngine();
+		engine.loadNoiseWords(args[1]);
+
+		ArrayList<String> words = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(args[0]));
+		while (sc.hasNext()) {
+			Scanner doc = new Scanner(new File(sc.next()));
+			while (doc.hasNext()) {
+				words.add(doc.next());
+			}
+		}
+		String[] tokens = words.toArray(new String[words.size()]);
+
+		for (int r = 0; r < 2; r++) {
+			run("legacy", tokens, rounds, engine, true);
+			run("getKeyWord", tokens, rounds, engine, false);
+		}
+	}
+
+	static void run(String name, String[] tokens, int rounds, LittleSearchEngine engine, boolean legacy) {
+		com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long tid = Thread.currentThread().getId();
+		int keywords = 0;
+		long bytes = mx.getThreadAllocatedBytes(tid);
+		long start = System.nanoTime();
+		for (int r = 0; r < rounds; r++) {
+			for (String t : tokens) {
+				String kw = legacy ? legacyKeyWord(engine.noiseWords, t) : engine.getKeyWord(t);
+				if (kw != null) {
+					keywords++;
+				}
+			}
+		}
+		long nanos = System.nanoTime() - start;
+		bytes = mx.getThreadAllocatedBytes(tid) - bytes;
+		long n = (long)tokens.length*rounds;
+		System.out.printf("%-10s: %6.1f ns/token, %6.1f bytes/token, %.2f keywords/token%n",
+				name, (double)nanos/n, (double)bytes/n, (double)keywords/n);
+	}
+
+	static String legacyKeyWord(HashMap<String,String> noiseWords, String word) {
+		String nWord = word.toLowerCase();
+		for (int i = nWord.length()-1; i > 0; i--) {
+			if (nWord.charAt(i) < 'a' || nWord.charAt(i) > 'z') {
+				nWord = nWord.substring(0, nWord.length()-1);
+			} else {
+				break;
+			}
+		}
+		for (int j = 0; j < nWord.length(); j++) {
+			if (nWord.charAt(j) < 'a' || nWord.charAt(j) > 'z') {
+				return null;
+			}
+		}
+		return noiseWords.containsValue(nWord) ? null : nWord;
+	}
+}
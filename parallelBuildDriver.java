@@ -0,0 +1,89 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Times the parallel makeIndex at 1, 2, 4 and 8 threads against the serial build, and checks
+ * that every parallel index is identical to the serial one.
+ *
+ * Usage: parallelBuildDriver docsFile noiseWordsFile [copies [rounds]]
+ *
+ * The documents in docsFile are listed "copies" times over (default 1) to get a bigger corpus.
+ */
+public class parallelBuildDriver {
+
+	static final int[] THREADS = {1, 2, 4, 8};
+
+	public static void main(String[] args)
+	throws FileNotFoundException {
+		if (args.length < 2) {
+			System.out.println("Usage: parallelBuildDriver docsFile noiseWordsFile [copies [rounds]]");
+			return;
+		}
+		int copies = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+		int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+		String docsFile = expand(args[0], copies);
+		String noiseWordsFile = args[1];
+
+		LittleSearchEngine serial = new LittleSearchEngine();
+		serial.loadNoiseWords(noiseWordsFile);
+		long t0 = System.nanoTime();
+		serial.bulkLoad();
+		Scanner sc = new Scanner(new File(docsFile));
+		while (sc.hasNext()) {
+			serial.mergeKeyWords(serial.loadKeyWords(sc.next()));
+		}
+		serial.seal();
+		long serialNanos = System.nanoTime() - t0;
+		System.out.printf("serial   : %8.2f ms, %d keywords%n", serialNanos/1e6, serial.keywordsIndex.size());
+
+		double base = 0;
+		for (int threads : THREADS) {
+			long best = Long.MAX_VALUE;
+			LittleSearchEngine par = null;
+			for (int r = 0; r < rounds; r++) {
+				par = new LittleSearchEngine();
+				long start = System.nanoTime();
+				par.makeIndex(docsFile, noiseWordsFile, threads);
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			if (threads == 1) {
+				base = best;
+			}
+			System.out.printf("%d threads: %8.2f ms, speedup %.2fx, %s%n", threads, best/1e6, base/best,
+					sameIndex(serial, par) ? "matches serial" : "DOES NOT MATCH SERIAL");
+		}
+	}
+
+	static boolean sameIndex(LittleSearchEngine a, LittleSearchEngine b) {
+		return new TreeMap<String,PostingList>(a.keywordsIndex).toString()
+				.equals(new TreeMap<String,PostingList>(b.keywordsIndex).toString());
+	}
+
+	static String expand(String docsFile, int copies)
+	throws FileNotFoundException {
+		if (copies <= 1) {
+			return docsFile;
+		}
+		ArrayList<String> docs = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(docsFile));
+		while (sc.hasNext()) {
+			docs.add(sc.next());
+		}
+		try {
+			File f = File.createTempFile("docs", ".txt");
+			f.deleteOnExit();
+			PrintWriter pw = new PrintWriter(f);
+			for (int c = 0; c < copies; c++) {
+				for (String doc : docs) {
+					pw.println(doc);
+				}
+			}
+			pw.close();
+			return f.getPath();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
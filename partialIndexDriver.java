@@ -0,0 +1,72 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Times makeIndexFromPartials against the parallel makeIndex at 1, 2, 4 and 8 threads, and
+ * checks that both give the same index as the serial build. Then saves each worker's partial
+ * index as a segment file, loads it back, and checks that every keyword of the partial index
+ * has the same posting list in the loaded engine.
+ *
+ * Usage: partialIndexDriver docsFile noiseWordsFile [rounds]
+ *
+ * The documents in docsFile must all have different names.
+ */
+public class partialIndexDriver {
+
+	public static void main(String[] args)
+	throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: partialIndexDriver docsFile noiseWordsFile [rounds]");
+			return;
+		}
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		String docsFile = args[0], noiseWordsFile = args[1];
+
+		LittleSearchEngine serial = new LittleSearchEngine();
+		serial.loadNoiseWords(noiseWordsFile);
+		serial.bulkLoad();
+		Scanner sc = new Scanner(new File(docsFile));
+		while (sc.hasNext()) {
+			serial.mergeKeyWords(serial.loadKeyWords(sc.next()));
+		}
+		serial.seal();
+
+		for (int threads : parallelBuildDriver.THREADS) {
+			long shared = Long.MAX_VALUE, partial = Long.MAX_VALUE;
+			LittleSearchEngine a = null, b = null;
+			for (int r = 0; r < rounds; r++) {
+				a = new LittleSearchEngine();
+				long start = System.nanoTime();
+				a.makeIndex(docsFile, noiseWordsFile, threads);
+				shared = Math.min(shared, System.nanoTime() - start);
+				b = new LittleSearchEngine();
+				start = System.nanoTime();
+				b.makeIndexFromPartials(docsFile, noiseWordsFile, threads);
+				partial = Math.min(partial, System.nanoTime() - start);
+			}
+			System.out.printf("%d threads: makeIndex %8.2f ms (%s), makeIndexFromPartials %8.2f ms (%s)%n",
+					threads, shared/1e6, parallelBuildDriver.sameIndex(serial, a) ? "matches serial" : "DOES NOT MATCH",
+					partial/1e6, parallelBuildDriver.sameIndex(serial, b) ? "matches serial" : "DOES NOT MATCH");
+		}
+
+		LittleSearchEngine engine = new LittleSearchEngine();
+		PartialIndex[] parts = engine.partialIndexes(docsFile, noiseWordsFile, 4);
+		for (int w = 0; w < parts.length; w++) {
+			File f = File.createTempFile("partial", ".lseg");
+			f.deleteOnExit();
+			parts[w].save(f.getPath(), engine.documents.names(), engine.documents.norms(),
+					engine.documents.totalLength(), engine.noiseWords.keySet());
+			LittleSearchEngine loaded = LittleSearchEngine.load(f.getPath());
+			int diffs = 0;
+			for (Map.Entry<String,PostingList> e : parts[w].index.entrySet()) {
+				if (!e.getValue().toString().equals(String.valueOf(loaded.postings(e.getKey())))) {
+					diffs++;
+				}
+			}
+			System.out.printf("partial %d: %d keywords, %d bytes, %s%n", w, parts[w].size(), f.length(),
+					diffs == 0 ? "segment matches" : diffs + " lists DO NOT MATCH");
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compares the index built with positions recorded (recordPositions) with the frequency-only
+ * index: the memory used by the posting lists and by the position lists, and the time taken to
+ * build each. Then times phrase queries of two and three words taken from the documents, against
+ * finding the same phrases by scanning every document, and checks that both find the same
+ * documents in the same order.
+ *
+ * Usage: positionalDriver docsFile noiseWordsFile [phrases]
+ */
+public class positionalDriver {
+
+	public static void main(String[] args)
+	throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: positionalDriver docsFile noiseWordsFile [phrases]");
+			return;
+		}
+		int count = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+		LittleSearchEngine plain = null, engine = null;
+		long plainNanos = Long.MAX_VALUE, positionalNanos = Long.MAX_VALUE;
+		for (int r = 0; r < 3; r++) {
+			long start = System.nanoTime();
+			plain = new LittleSearchEngine();
+			build(plain, args[0], args[1]);
+			plainNanos = Math.min(plainNanos, System.nanoTime() - start);
+			start = System.nanoTime();
+			engine = new LittleSearchEngine();
+			engine.recordPositions();
+			build(engine, args[0], args[1]);
+			positionalNanos = Math.min(positionalNanos, System.nanoTime() - start);
+		}
+
+		long postings = postingBytes(plain), positions = engine.positions.bytes();
+		System.out.printf("build: frequency-only %.1f ms, positional %.1f ms%n",
+				plainNanos/1e6, positionalNanos/1e6);
+		System.out.printf("memory: posting lists ~%d bytes, position lists %d bytes (+%.0f%%)%n",
+				postings, positions, 100.0*positions/postings);
+
+		// the documents' words, by position
+		int n = engine.documents.size();
+		String[][] words = new String[n][];
+		for (int d = 0; d < n; d++) {
+			words[d] = read(engine.documents.name(d));
+		}
+		Random random = new Random(42);
+		ArrayList<String> phrases = new ArrayList<String>();
+		while (phrases.size() < count) {
+			String[] doc = words[random.nextInt(n)];
+			int length = 2 + random.nextInt(2);
+			if (doc.length < length) {
+				continue;
+			}
+			int at = random.nextInt(doc.length - length + 1);
+			String phrase = String.join(" ", Arrays.copyOfRange(doc, at, at + length));
+			if (engine.getKeyWord(doc[at]) != null) {
+				phrases.add(phrase);
+			}
+		}
+
+		int diffs = 0;
+		long found = 0;
+		long start = System.nanoTime();
+		for (String phrase : phrases) {
+			found += engine.phraseSearch(10, phrase).size();
+		}
+		long phraseNanos = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (String phrase : phrases) {
+			scan(engine, words, 10, phrase);
+		}
+		long scanNanos = System.nanoTime() - start;
+		for (String phrase : phrases) {
+			if (!engine.phraseSearch(n, phrase).equals(scan(engine, words, n, phrase))) {
+				diffs++;
+			}
+		}
+		System.out.printf("%d phrases, %.1f documents each: phraseSearch %.2f us, scan %.2f us per phrase, %s%n",
+				phrases.size(), (double)found/phrases.size(), phraseNanos/1e3/phrases.size(),
+				scanNanos/1e3/phrases.size(), diffs == 0 ? "same results" : diffs + " phrases DO NOT MATCH");
+	}
+
+	/**
+	 * Indexes the documents as the serial makeIndex does, without printing the index.
+	 */
+	static void build(LittleSearchEngine engine, String docsFile, String noiseWordsFile)
+	throws FileNotFoundException {
+		engine.loadNoiseWords(noiseWordsFile);
+		engine.bulkLoad();
+		Scanner sc = new Scanner(new File(docsFile));
+		while (sc.hasNext()) {
+			engine.mergeKeyWords(engine.loadKeyWords(sc.next()));
+		}
+		engine.seal();
+	}
+
+	/**
+	 * Memory used by the arrays of the posting lists, in bytes.
+	 */
+	static long postingBytes(LittleSearchEngine engine) {
+		long bytes = 0;
+		for (PostingList list : engine.keywordsIndex.values()) {
+			bytes += 32 + 8L*list.docs.length;
+		}
+		return bytes;
+	}
+
+	static String[] read(String file)
+	throws IOException {
+		StringBuilder text = new StringBuilder();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				text.append(line).append('\n');
+			}
+		} finally {
+			in.close();
+		}
+		String s = text.toString().trim();
+		return s.isEmpty() ? new String[0] : s.split("\\s+");
+	}
+
+	/**
+	 * Finds the phrase by looking at every position of every document, with the same rules as
+	 * phraseSearch: noise words in the phrase match any word, but are dropped from its ends, and
+	 * the documents with the most occurrences come first.
+	 */
+	static ArrayList<String> scan(LittleSearchEngine engine, String[][] words, int k, String phrase) {
+		String[] parts = phrase.trim().split("\\s+");
+		ArrayList<String> kws = new ArrayList<String>();
+		for (String part : parts) {
+			String kw = engine.getKeyWord(part);
+			if (kw != null || !kws.isEmpty()) {
+				kws.add(kw);
+			}
+		}
+		while (!kws.isEmpty() && kws.get(kws.size() - 1) == null) {
+			kws.remove(kws.size() - 1);
+		}
+		parts = kws.toArray(new String[kws.size()]);
+		final int[] counts = new int[words.length];
+		ArrayList<Integer> docs = new ArrayList<Integer>();
+		for (int d = 0; d < words.length; d++) {
+			for (int at = 0; at + parts.length <= words[d].length; at++) {
+				boolean match = true;
+				for (int w = 0; w < parts.length && match; w++) {
+					match = parts[w] == null || parts[w].equals(engine.getKeyWord(words[d][at + w]));
+				}
+				if (match) {
+					counts[d]++;
+				}
+			}
+			if (counts[d] > 0) {
+				docs.add(d);
+			}
+		}
+		Collections.sort(docs, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return counts[a] != counts[b] ? counts[b] - counts[a] : a - b;
+			}
+		});
+		ArrayList<String> names = new ArrayList<String>();
+		for (int i = 0; i < docs.size() && i < k; i++) {
+			names.add(engine.documents.name(docs.get(i)));
+		}
+		return names;
+	}
+}
@@ -0,0 +1,145 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Runs prefix searches (topKPrefix) for prefixes of one to four letters taken from the keywords
+ * of the index, and compares the keywords each expands to with a scan of every keyword in the
+ * index, and the time to expand a prefix with the time of the scan. The searches are checked
+ * on the index as built, after compact, on a segment saved from it and loaded back, and on that
+ * segment after the second half of the documents has been merged into it. Then merges more
+ * documents into the index as built, one at a time, and times the first prefix search after
+ * each, to show that a change to the index does not slow the next prefix search down.
+ *
+ * Usage: prefixDriver docsFile noiseWordsFile [prefixes] [maxTerms]
+ */
+public class prefixDriver {
+
+	public static void main(String[] args)
+	throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: prefixDriver docsFile noiseWordsFile [prefixes] [maxTerms]");
+			return;
+		}
+		int count = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+		int max = args.length > 3 ? Integer.parseInt(args[3]) : LittleSearchEngine.MAX_EXPANSIONS;
+		ArrayList<String> docs = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(args[0]));
+		while (sc.hasNext()) {
+			docs.add(sc.next());
+		}
+
+		LittleSearchEngine engine = new LittleSearchEngine();
+		engine.loadNoiseWords(args[1]);
+		for (int i = 0; i < docs.size()/2; i++) {
+			engine.mergeKeyWords(engine.loadKeyWords(docs.get(i)));
+		}
+		ArrayList<String> keywords = new ArrayList<String>(engine.keywordsIndex.keySet());
+		Collections.sort(keywords);
+		Random random = new Random(42);
+		String[] prefixes = new String[count];
+		for (int p = 0; p < count; p++) {
+			String kw = keywords.get(random.nextInt(keywords.size()));
+			prefixes[p] = kw.substring(0, Math.min(kw.length(), 1 + random.nextInt(4))) + "*";
+		}
+
+		long expandNanos = Long.MAX_VALUE, scanNanos = Long.MAX_VALUE, matches = 0, capped = 0;
+		for (int r = 0; r < 5; r++) {
+			long start = System.nanoTime();
+			for (String p : prefixes) {
+				engine.expand(p.substring(0, p.length() - 1), max);
+			}
+			expandNanos = Math.min(expandNanos, System.nanoTime() - start);
+			start = System.nanoTime();
+			matches = 0;
+			capped = 0;
+			for (String p : prefixes) {
+				int n = scan(engine.keywordsIndex.keySet(), p.substring(0, p.length() - 1), Integer.MAX_VALUE).size();
+				matches += n;
+				if (n > max) {
+					capped++;
+				}
+			}
+			scanNanos = Math.min(scanNanos, System.nanoTime() - start);
+		}
+		System.out.printf("%d keywords, %d prefixes, %.1f matches per prefix, %d capped at %d keywords%n",
+				keywords.size(), count, (double)matches/count, capped, max);
+		System.out.printf("expand %.2f us per prefix, scan of every keyword %.2f us per prefix (%.1fx)%n",
+				expandNanos/1e3/count, scanNanos/1e3/count, (double)scanNanos/expandNanos);
+
+		check("in memory", engine, prefixes, max);
+		LittleSearchEngine compacted = new LittleSearchEngine();
+		compacted.loadNoiseWords(args[1]);
+		for (int i = 0; i < docs.size()/2; i++) {
+			compacted.mergeKeyWords(compacted.loadKeyWords(docs.get(i)));
+		}
+		compacted.compact();
+		check("compacted", compacted, prefixes, max);
+
+		File f = File.createTempFile("prefix", ".lseg");
+		f.deleteOnExit();
+		engine.save(f.getPath());
+		LittleSearchEngine loaded = LittleSearchEngine.load(f.getPath());
+		check("segment", loaded, prefixes, max);
+		for (int i = docs.size()/2; i < docs.size(); i++) {
+			loaded.mergeKeyWords(loaded.loadKeyWords(docs.get(i)));
+		}
+		check("segment and merged", loaded, prefixes, max);
+
+		// the first prefix search after each change
+		int changes = Math.min(500, docs.size() - docs.size()/2);
+		long changedNanos = 0;
+		for (int i = 0; i < changes; i++) {
+			engine.mergeKeyWords(engine.loadKeyWords(docs.get(docs.size()/2 + i)));
+			String p = prefixes[i % count];
+			long start = System.nanoTime();
+			engine.expand(p.substring(0, p.length() - 1), max);
+			changedNanos += System.nanoTime() - start;
+		}
+		System.out.printf("first prefix search after each of %d merged documents: expand %.2f us per prefix%n",
+				changes, changedNanos/1e3/Math.max(1, changes));
+		check("in memory and merged", engine, prefixes, max);
+	}
+
+	/**
+	 * Checks topKPrefix against topK over the keywords found by a scan of every keyword.
+	 */
+	static void check(String label, LittleSearchEngine engine, String[] prefixes, int max) {
+		HashSet<String> all = new HashSet<String>(engine.keywordsIndex.keySet());
+		if (engine.dictionary != null) {
+			for (int t = 0; t < engine.dictionary.size(); t++) {
+				all.add(engine.dictionary.term(t));
+			}
+		}
+		if (engine.segment != null) {
+			for (int t = 0; t < engine.segment.termCount(); t++) {
+				all.add(engine.segment.term(t));
+			}
+		}
+		int diffs = 0;
+		for (String p : prefixes) {
+			List<String> terms = scan(all, p.substring(0, p.length() - 1), max);
+			if (!engine.expand(p.substring(0, p.length() - 1), max).equals(terms)
+					|| !engine.topKPrefix(10, p, max).equals(engine.topK(10, terms.toArray(new String[terms.size()])))) {
+				diffs++;
+			}
+		}
+		System.out.printf("%s: %s%n", label, diffs == 0 ? "every prefix search matches the scan"
+				: diffs + " prefix searches DO NOT MATCH");
+	}
+
+	/**
+	 * Returns the first max keywords, in sorted order, that start with the prefix.
+	 */
+	static List<String> scan(Collection<String> keywords, String prefix, int max) {
+		ArrayList<String> terms = new ArrayList<String>();
+		for (String kw : keywords) {
+			if (kw.startsWith(prefix)) {
+				terms.add(kw);
+			}
+		}
+		Collections.sort(terms);
+		return terms.size() > max ? terms.subList(0, max) : terms;
+	}
+}
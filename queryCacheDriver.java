@@ -0,0 +1,146 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Runs a skewed log of queries (pairs of the 500 most common keywords, picked with a Zipf
+ * distribution, so a few hundred pairs make up most of the log) through top5search, on the index
+ * as built and on a compressed copy of it, and through topKBM25, with and without the result
+ * cache, and prints the time per query and the cache's counts (top5search on lists in frequency
+ * order does not use the cache). Then indexes the second half of the documents
+ * while the log keeps running, one document every few queries, and checks every cached result
+ * against the same search run without the cache, so a result that the merged documents or their
+ * lengths changed is never served.
+ *
+ * Usage: queryCacheDriver docsFile noiseWordsFile [queries] [cacheBytes]
+ */
+public class queryCacheDriver {
+
+	public static void main(String[] args)
+	throws FileNotFoundException {
+		if (args.length < 2) {
+			System.out.println("Usage: queryCacheDriver docsFile noiseWordsFile [queries] [cacheBytes]");
+			return;
+		}
+		int count = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+		long budget = args.length > 3 ? Long.parseLong(args[3]) : 256*1024;
+		ArrayList<String> docs = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(args[0]));
+		while (sc.hasNext()) {
+			docs.add(sc.next());
+		}
+
+		LittleSearchEngine engine = new LittleSearchEngine();
+		engine.loadNoiseWords(args[1]);
+		for (int i = 0; i < docs.size()/2; i++) {
+			engine.mergeKeyWords(engine.loadKeyWords(docs.get(i)));
+		}
+		ArrayList<String> keywords = new ArrayList<String>(engine.keywordsIndex.keySet());
+		final LittleSearchEngine e = engine;
+		Collections.sort(keywords, new Comparator<String>() {
+			public int compare(String a, String b) {
+				int diff = e.keywordsIndex.get(b).size() - e.keywordsIndex.get(a).size();
+				return diff != 0 ? diff : a.compareTo(b);
+			}
+		});
+		keywords = new ArrayList<String>(keywords.subList(0, Math.min(500, keywords.size())));
+		String[][] log = log(keywords, count, new Random(42));
+
+		time("top5search", engine, log, budget, false);
+		LittleSearchEngine compressed = new LittleSearchEngine();
+		compressed.loadNoiseWords(args[1]);
+		for (int i = 0; i < docs.size()/2; i++) {
+			compressed.mergeKeyWords(compressed.loadKeyWords(docs.get(i)));
+		}
+		compressed.compress();
+		time("top5search, compressed", compressed, log, budget, false);
+		time("topKBM25", engine, log, budget, true);
+
+		// merge the rest of the documents while searching
+		engine.cacheResults(budget);
+		int merged = docs.size()/2, diffs = 0;
+		int every = Math.max(1, count/Math.max(1, docs.size() - merged));
+		for (int i = 0; i < log.length; i++) {
+			if (i % every == 0 && merged < docs.size()) {
+				engine.mergeKeyWords(engine.loadKeyWords(docs.get(merged++)));
+			}
+			String[] q = log[i];
+			ArrayList<String> result = engine.top5search(q[0], q[1]);
+			ArrayList<String> fresh = engine.topK(new SearchStats(), 5, q[0], q[1]);
+			if (!result.equals(fresh)
+					|| !engine.topKBM25(5, q[0], q[1]).equals(engine.topKBM25(new SearchStats(), 5, q[0], q[1]))) {
+				diffs++;
+			}
+		}
+		for (String[] q : log) {
+			if (!engine.top5search(q[0], q[1]).equals(engine.topK(new SearchStats(), 5, q[0], q[1]))) {
+				diffs++;
+			}
+			if (!engine.topKAnd(5, q[0], q[1]).equals(engine.topKAnd(5, q[1], q[0]))
+					|| !engine.topKBM25(5, q[0], q[1]).equals(engine.topKBM25(5, q[1].toUpperCase(), q[0] + "."))) {
+				diffs++;
+			}
+		}
+		System.out.printf("merged %d documents while searching: %s%n", docs.size() - docs.size()/2,
+				diffs == 0 ? "every result matches the uncached search" : diffs + " results DO NOT MATCH");
+		System.out.println("cache: " + engine.cache());
+	}
+
+	/**
+	 * Runs the log three times without the cache and three times with an empty cache, and
+	 * prints the best time of each.
+	 */
+	static void time(String label, LittleSearchEngine engine, String[][] log, long budget, boolean bm25) {
+		long plain = Long.MAX_VALUE, cached = Long.MAX_VALUE;
+		for (int r = 0; r < 3; r++) {
+			engine.cacheResults(0);
+			long start = System.nanoTime();
+			run(engine, log, bm25);
+			plain = Math.min(plain, System.nanoTime() - start);
+			engine.cacheResults(budget);
+			start = System.nanoTime();
+			run(engine, log, bm25);
+			cached = Math.min(cached, System.nanoTime() - start);
+		}
+		System.out.printf("%s, %d queries: %.2f us per query without cache, %.2f us with cache%n",
+				label, log.length, plain/1e3/log.length, cached/1e3/log.length);
+		System.out.println("cache: " + engine.cache());
+	}
+
+	static void run(LittleSearchEngine engine, String[][] log, boolean bm25) {
+		for (String[] q : log) {
+			if (bm25) {
+				engine.topKBM25(5, q[0], q[1]);
+			} else {
+				engine.top5search(q[0], q[1]);
+			}
+		}
+	}
+
+	/**
+	 * Makes a log of keyword pairs, drawn from a Zipf distribution over all the pairs, so the
+	 * most common pair is asked for about twice as often as the second, and so on.
+	 */
+	static String[][] log(ArrayList<String> keywords, int count, Random random) {
+		int pairs = 20000;
+		String[][] distinct = new String[pairs][];
+		for (int p = 0; p < pairs; p++) {
+			distinct[p] = new String[] {
+				keywords.get(random.nextInt(keywords.size())), keywords.get(random.nextInt(keywords.size()))
+			};
+		}
+		double[] cumulative = new double[pairs];
+		double sum = 0;
+		for (int p = 0; p < pairs; p++) {
+			sum += 1.0/(p + 1);
+			cumulative[p] = sum;
+		}
+		String[][] log = new String[count][];
+		for (int i = 0; i < count; i++) {
+			int p = Arrays.binarySearch(cumulative, random.nextDouble()*sum);
+			log[i] = distinct[p < 0 ? Math.min(-p - 1, pairs - 1) : p];
+		}
+		return log;
+	}
+}
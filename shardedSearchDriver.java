@@ -0,0 +1,87 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Builds a ShardedSearchEngine with 1, 2, 4 and 8 shards, timing the build and the searches,
+ * and checks that every sharded engine gives the same results as a single LittleSearchEngine.
+ * Searches are for pairs and for four keywords at a time, taken from every keyword in the index.
+ *
+ * Usage: shardedSearchDriver docsFile noiseWordsFile [rounds]
+ */
+public class shardedSearchDriver {
+
+	public static void main(String[] args)
+	throws FileNotFoundException {
+		if (args.length < 2) {
+			System.out.println("Usage: shardedSearchDriver docsFile noiseWordsFile [rounds]");
+			return;
+		}
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		LittleSearchEngine single = new LittleSearchEngine();
+		single.makeIndex(args[0], args[1], Runtime.getRuntime().availableProcessors());
+		ArrayList<String> keywords = new ArrayList<String>(single.keywordsIndex.keySet());
+		int n = keywords.size();
+		String[][] queries = new String[n][];
+		ArrayList<ArrayList<String>> pairs = new ArrayList<ArrayList<String>>(n);
+		ArrayList<ArrayList<String>> fours = new ArrayList<ArrayList<String>>(n);
+		for (int i = 0; i < n; i++) {
+			queries[i] = new String[] {keywords.get(i), keywords.get((i*31 + 7) % n),
+					keywords.get((i*17 + 3) % n), keywords.get((i*13 + 5) % n)};
+			pairs.add(single.top5search(queries[i][0], queries[i][1]));
+			fours.add(single.topK(5, queries[i]));
+		}
+
+		for (int shardCount : parallelBuildDriver.THREADS) {
+			long build = Long.MAX_VALUE, search = Long.MAX_VALUE;
+			int diffs = 0;
+			ShardedSearchEngine sharded = null;
+			for (int r = 0; r < rounds; r++) {
+				if (sharded != null) {
+					sharded.shutdown();
+				}
+				sharded = new ShardedSearchEngine(shardCount);
+				long start = System.nanoTime();
+				sharded.makeIndex(args[0], args[1]);
+				build = Math.min(build, System.nanoTime() - start);
+
+				diffs = 0;
+				start = System.nanoTime();
+				for (int i = 0; i < n; i++) {
+					if (!sharded.top5search(queries[i][0], queries[i][1]).equals(pairs.get(i))) {
+						diffs++;
+					}
+					if (!sharded.topK(5, queries[i]).equals(fours.get(i))) {
+						diffs++;
+					}
+				}
+				search = Math.min(search, System.nanoTime() - start);
+				for (int i = 0; i < n; i++) {
+					if (!sharded.topK(5, mixedCase(queries[i])).equals(fours.get(i))) {
+						diffs++;
+					}
+				}
+			}
+			int[] sizes = sharded.shardSizes();
+			sharded.shutdown();
+			System.out.printf("%d shards: build %8.2f ms, %6.2f us per 2+4 keyword search, keywords per shard %s, %s%n",
+					shardCount, build/1e6, search/1e3/n, Arrays.toString(sizes),
+					diffs == 0 ? "matches single engine" : diffs + " searches DO NOT MATCH");
+		}
+	}
+
+	/**
+	 * Returns the keywords as a user might type them, capitalized or upper cased and with
+	 * trailing punctuation, which must search for the same keywords.
+	 */
+	static String[] mixedCase(String[] keywords) {
+		String[] mixed = new String[keywords.length];
+		for (int i = 0; i < keywords.length; i++) {
+			String kw = keywords[i];
+			mixed[i] = i % 2 == 0 ? Character.toUpperCase(kw.charAt(0)) + kw.substring(1) + "."
+					: kw.toUpperCase();
+		}
+		return mixed;
+	}
+}
@@ -0,0 +1,89 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compares the TermDictionary with a HashMap from keyword to ordinal: memory used, and time per
+ * exact lookup of every keyword in the index, in each of five passes (the first one with the
+ * code not yet compiled).
+ *
+ * Usage: termDictionaryDriver docsFile noiseWordsFile [rounds]
+ */
+public class termDictionaryDriver {
+
+	public static void main(String[] args)
+	throws FileNotFoundException {
+		if (args.length < 2) {
+			System.out.println("Usage: termDictionaryDriver docsFile noiseWordsFile [rounds]");
+			return;
+		}
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		LittleSearchEngine engine = new LittleSearchEngine();
+		engine.makeIndex(args[0], args[1], Runtime.getRuntime().availableProcessors());
+		ArrayList<String> keywords = new ArrayList<String>(engine.keywordsIndex.keySet());
+		engine.keywordsIndex.clear();
+
+		HashMap<String,Integer> map = new HashMap<String,Integer>(1000, 2.0f);
+		for (int i = 0; i < keywords.size(); i++) {
+			map.put(new String(keywords.get(i).toCharArray()), i);
+		}
+		long mapBytes = hashMapBytes(keywords);
+		TermDictionary dict = TermDictionary.of(keywords);
+		System.out.printf("%d keywords: HashMap ~%d bytes, TermDictionary %d bytes (%.1fx smaller)%n",
+				keywords.size(), mapBytes, dict.bytes(), (double)mapBytes/dict.bytes());
+
+		// fresh Strings, as from a query, so hash codes are not cached
+		Collections.shuffle(keywords, new Random(1));
+		String[][] queries = new String[rounds][keywords.size()];
+		for (int r = 0; r < rounds; r++) {
+			for (int i = 0; i < keywords.size(); i++) {
+				queries[r][i] = new String(keywords.get(i).toCharArray());
+			}
+		}
+		int wrong = 0;
+		for (String kw : keywords) {
+			int t = dict.find(kw);
+			if (t < 0 || !dict.term(t).equals(kw) || dict.find(kw + "q") >= 0 && !map.containsKey(kw + "q")) {
+				wrong++;
+			}
+		}
+		System.out.println(wrong == 0 ? "every keyword found at its ordinal" : wrong + " lookups DO NOT MATCH");
+		for (int pass = 0; pass < 5; pass++) {
+			long start = System.nanoTime(), found = 0;
+			for (String[] q : queries) {
+				for (String kw : q) {
+					found += map.get(kw) != null ? 1 : 0;
+				}
+			}
+			long mapNanos = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (String[] q : queries) {
+				for (String kw : q) {
+					found += dict.find(kw) >= 0 ? 1 : 0;
+				}
+			}
+			long dictNanos = System.nanoTime() - start;
+			long n = (long)rounds*keywords.size();
+			System.out.printf("lookup: HashMap %.1f ns, TermDictionary %.1f ns (%d found)%n",
+					(double)mapNanos/n, (double)dictNanos/n, found);
+		}
+	}
+
+	/**
+	 * Estimated heap used by the keys and entries of a HashMap with the given keywords, on a
+	 * 64-bit JVM with compressed references: the table, one 32-byte node per entry, and a 24-byte
+	 * String with its (Latin-1) byte array per keyword.
+	 */
+	static long hashMapBytes(List<String> keywords) {
+		int table = 1;
+		while (table*0.75 < keywords.size()) {
+			table <<= 1;
+		}
+		long bytes = 16 + 4L*table;
+		for (String kw : keywords) {
+			bytes += 32 + 24 + ((16 + kw.length() + 7) & ~7);
+		}
+		return bytes;
+	}
+}
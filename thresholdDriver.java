@@ -0,0 +1,80 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Shows how much of the posting lists the early-terminating top-k search reads. Searches every
+ * pair of the 20 most common keywords at several values of k, on the index as built (lists in
+ * frequency order, so the search can stop early) and on a compressed copy of it (lists in
+ * document order, read in full), checks that both give the same results, and prints the
+ * postings read and skipped, and the time per search.
+ *
+ * Usage: thresholdDriver docsFile noiseWordsFile [rounds]
+ */
+public class thresholdDriver {
+
+	static final int[] K = {1, 5, 10, 50};
+
+	public static void main(String[] args)
+	throws FileNotFoundException {
+		if (args.length < 2) {
+			System.out.println("Usage: thresholdDriver docsFile noiseWordsFile [rounds]");
+			return;
+		}
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		LittleSearchEngine engine = new LittleSearchEngine();
+		engine.makeIndex(args[0], args[1], Runtime.getRuntime().availableProcessors());
+		LittleSearchEngine compressed = new LittleSearchEngine();
+		compressed.makeIndex(args[0], args[1], Runtime.getRuntime().availableProcessors());
+		compressed.compress();
+
+		ArrayList<String> common = new ArrayList<String>(engine.keywordsIndex.keySet());
+		final LittleSearchEngine e = engine;
+		Collections.sort(common, new Comparator<String>() {
+			public int compare(String a, String b) {
+				return e.keywordsIndex.get(b).size() - e.keywordsIndex.get(a).size();
+			}
+		});
+		common = new ArrayList<String>(common.subList(0, Math.min(20, common.size())));
+
+		for (int k : K) {
+			SearchStats early = new SearchStats(), full = new SearchStats();
+			int diffs = 0;
+			long earlyNanos = Long.MAX_VALUE, fullNanos = Long.MAX_VALUE;
+			for (int r = 0; r < rounds; r++) {
+				SearchStats es = new SearchStats(), fs = new SearchStats();
+				long start = System.nanoTime();
+				for (String kw1 : common) {
+					for (String kw2 : common) {
+						if (kw1 != kw2) {
+							engine.topK(es, k, kw1, kw2);
+						}
+					}
+				}
+				earlyNanos = Math.min(earlyNanos, System.nanoTime() - start);
+				start = System.nanoTime();
+				for (String kw1 : common) {
+					for (String kw2 : common) {
+						if (kw1 != kw2) {
+							compressed.topK(fs, k, kw1, kw2);
+						}
+					}
+				}
+				fullNanos = Math.min(fullNanos, System.nanoTime() - start);
+				early = es;
+				full = fs;
+			}
+			for (String kw1 : common) {
+				for (String kw2 : common) {
+					if (kw1 != kw2 && !engine.topK(k, kw1, kw2).equals(compressed.topK(k, kw1, kw2))) {
+						diffs++;
+					}
+				}
+			}
+			System.out.printf("k=%d: early %s, %.2f us per search%n", k, early, earlyNanos/1e3/early.searches);
+			System.out.printf("     full  %s, %.2f us per search, %s%n", full, fullNanos/1e3/full.searches,
+					diffs == 0 ? "same results" : diffs + " searches DO NOT MATCH");
+		}
+	}
+}